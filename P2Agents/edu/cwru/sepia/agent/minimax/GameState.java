@@ -56,9 +56,18 @@ public class GameState {
 	
 	private double utility = 0;
 	
+	//zobrist hash of the unit positions, hp and side to move, kept up to date by move() and attack()
+	//so a transposition table can recognize the same position reached by another move order
+	private long hash;
+	
 	private int totalFootmanHp;
 	private int totalArcherHp;
 	
+	//what makeMove() changed, one record per move still made, so unmakeMove() can put it back
+	//the records are kept and reused, after the first few searches making a move allocates nothing
+	private final List<Undo> undos = new ArrayList<Undo>();
+	private int made = 0;
+	
 	//need a variable to check if this gamestate is enemy turn or our turn...
 	//bool something
 	
@@ -112,6 +121,11 @@ public class GameState {
     	});
     	
     	playerTurn = true;
+    	
+    	for(Agent a : this.world.agents.values()) {
+    		hash ^= squareKey(a.getId(), a.getX(), a.getY()) ^ hpKey(a.getId(), a.getHp());
+    	}
+    	hash ^= SIDE_KEY;
     }
     
     //secondary constructor...
@@ -147,11 +161,133 @@ public class GameState {
     	});
     	
     	this.playerTurn = !gameState.playerTurn;
-    	this.calcUtility =  gameState.calcUtility;
-    	this.utility = gameState.utility;
+    	this.hash = gameState.hash ^ SIDE_KEY;
+    	//the utility is left for the child to work out from its own position
+    	//inheriting the parent's made every state below depth 1 score the same as its parent
+    	//and would give one position different values in the transposition table
     	
     }
     
+    //zobrist keys, one pseudo random long per (unit, square), (unit, hp) and for the side to move
+    //they come from mixing the feature instead of a random table so they never need sizing
+    //and stay the same from turn to turn, which lets the transposition table outlive a turn
+    private static final long SIDE_KEY = mix(0x5a5a5a5aL);
+    
+    private static long squareKey(int id, int x, int y) {
+    	return mix(((long) id << 32 | (x & 0xffff) << 16 | (y & 0xffff)) << 1);
+    }
+    
+    private static long hpKey(int id, int hp) {
+    	return mix(((long) id << 32 | (hp & 0xffffffffL)) << 1 | 1);
+    }
+    
+    //splitmix64 finalizer
+    private static long mix(long z) {
+    	z += 0x9e3779b97f4a7c15L;
+    	z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    	z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    	return z ^ (z >>> 31);
+    }
+    
+    /**
+     * @return Zobrist hash of the unit positions, unit hp and the side to move
+     */
+    public long getHash() {
+    	return hash;
+    }
+    
+    /**
+     * @return A copy of this state with the same side to move, for a search to make and unmake moves on
+     */
+    public GameState copy() {
+    	GameState copy = new GameState(this);
+    	copy.playerTurn = this.playerTurn;
+    	copy.hash = this.hash;
+    	return copy;
+    }
+    
+    /**
+     * Everything one move changed: the hash, the utility worked out for the position before it
+     * and the position and hp of every unit it moved or attacked, in the order it changed them
+     */
+    private static class Undo {
+    	private long hash;
+    	private double utility;
+    	private boolean calcUtility;
+    	
+    	private int count;
+    	private Agent[] agents = new Agent[4];
+    	private int[] x = new int[4];
+    	private int[] y = new int[4];
+    	private int[] hp = new int[4];
+    	
+    	private void save(Agent agent) {
+    		if(count == agents.length) {
+    			agents = Arrays.copyOf(agents, count * 2);
+    			x = Arrays.copyOf(x, count * 2);
+    			y = Arrays.copyOf(y, count * 2);
+    			hp = Arrays.copyOf(hp, count * 2);
+    		}
+    		agents[count] = agent;
+    		x[count] = agent.getX();
+    		y[count] = agent.getY();
+    		hp[count] = agent.getHp();
+    		count++;
+    	}
+    }
+    
+    /**
+     * Applies a joint action to this state in place and passes the turn to the other side.
+     * This state becomes the child getChildren() would have made for the action, without copying the world.
+     *
+     * @param move One action per unit of the side to move, as returned by getMoves()
+     */
+    public void makeMove(Map<Integer, Action> move) {
+    	if(made == undos.size()) undos.add(new Undo());
+    	Undo undo = undos.get(made++);
+    	undo.hash = hash;
+    	undo.utility = utility;
+    	undo.calcUtility = calcUtility;
+    	undo.count = 0;
+    	
+    	for(Action action : move.values()) {
+    		//an attack changes the target, a move the unit itself
+    		int changedId = action.getType() == ActionType.PRIMITIVEATTACK ? ((TargetedAction) action).getTargetId() : action.getUnitId();
+    		undo.save(this.world.agents.get(changedId));
+    		applyAction(action);
+    	}
+    	
+    	this.playerTurn = !playerTurn;
+    	this.hash ^= SIDE_KEY;
+    	//same as a new child, the utility is worked out again from the new position
+    	this.utility = 0;
+    	this.calcUtility = false;
+    }
+    
+    /**
+     * Takes back the last move makeMove() made that isn't taken back yet.
+     */
+    public void unmakeMove() {
+    	Undo undo = undos.get(--made);
+    	
+    	//backwards, a unit attacked twice gets the hp it had before the first attack
+    	for(int i = undo.count - 1; i >= 0; i--) {
+    		Agent agent = undo.agents[i];
+    		if(agent.getX() != undo.x[i] || agent.getY() != undo.y[i]) {
+    			this.world.map[agent.getX()][agent.getY()] = null;
+    			agent.setX(undo.x[i]);
+    			agent.setY(undo.y[i]);
+    			this.world.map[undo.x[i]][undo.y[i]] = agent;
+    		}
+    		agent.setHp(undo.hp[i]);
+    	}
+    	
+    	this.playerTurn = !playerTurn;
+    	this.hash = undo.hash;
+    	this.utility = undo.utility;
+    	this.calcUtility = undo.calcUtility;
+    }
+    
     private class World {
     	private int xDim;
     	private int yDim;
@@ -602,6 +738,43 @@ public class GameState {
      */
     public List<GameStateChild> getChildren() {
     	
+    	List<Map<Integer, Action>> actionListList = getMoves();
+    	if(actionListList == null) return null;
+    	
+    	//now the tricky part... create gamestates associated with each action outcome
+    	//the document explicitly says not to use sepia's state cloning feature...
+    	//so my initial hope of making several copies of the gamestate,
+    	//then applying all relevant actions is completely useless...
+    	//the current gamestate constructor uses some stateview state so let's try to use that
+    	
+    	List<GameStateChild> children = new ArrayList<GameStateChild>(25);
+    	for(Map<Integer, Action> actionList : actionListList) {
+    		children.add(new GameStateChild(actionList, resultOf(actionList)));
+    	}
+    	
+    	//System.out.println("getChildren found " + children.size() + " children");
+    	
+        return children;
+    }
+    
+    /**
+     * @param move One action per unit of the side to move
+     * @return A new state for the position after the move, this one is left as it is
+     */
+    public GameState resultOf(Map<Integer, Action> move) {
+    	GameState child = new GameState(this); //ive removed the band-aid and now its not terrible
+    	for(Action action : move.values()) {
+    		child.applyAction(action);
+    	}
+    	return child;
+    }
+    
+    /**
+     * @return Every joint action the side to move can take, one action per living unit.
+     * Null if that side has no units left.
+     */
+    public List<Map<Integer, Action>> getMoves() {
+    	
     	//ok well i made the alpha beta system but theres no way to get children yet so its always null
     	//here we go i guess
     	
@@ -635,6 +808,9 @@ public class GameState {
     			actionListList.add(actionList);
     		} else {
     			for(Action act2 : agentActions.get(1)) {
+    				//both moving into the same empty cell isn't a real outcome, one of them would be blocked
+    				//and the cell would end up holding only one of the two agents
+    				if(sameDestination(act1, act2)) continue;
     				Map<Integer, Action> actionList = new HashMap<Integer, Action>();
     				actionList.put(act1.getUnitId(), act1);
     				actionList.put(act2.getUnitId(), act2);
@@ -643,24 +819,7 @@ public class GameState {
     		}
     	}
     	
-    	//now the tricky part... create gamestates associated with each action outcome
-    	//the document explicitly says not to use sepia's state cloning feature...
-    	//so my initial hope of making several copies of the gamestate,
-    	//then applying all relevant actions is completely useless...
-    	//the current gamestate constructor uses some stateview state so let's try to use that
-    	
-    	List<GameStateChild> children = new ArrayList<GameStateChild>(25);
-    	for(Map<Integer, Action> actionList : actionListList) {
-    		GameState child = new GameState(this); //ive removed the band-aid and now its not terrible
-    		for(Action action : actionList.values()) {
-    			child.applyAction(action);
-    		}
-    		children.add(new GameStateChild(actionList, child));
-    	}
-    	
-    	//System.out.println("getChildren found " + children.size() + " children");
-    	
-        return children;
+        return actionListList;
     }
     
     /* to make life easier and since all agents will need to have actions evaluated,
@@ -694,6 +853,16 @@ public class GameState {
     	return actions;
     }
     
+    private boolean sameDestination(Action act1, Action act2) {
+    	if(act1.getType() != ActionType.PRIMITIVEMOVE || act2.getType() != ActionType.PRIMITIVEMOVE) return false;
+    	
+    	Agent a1 = this.world.agents.get(act1.getUnitId());
+    	Agent a2 = this.world.agents.get(act2.getUnitId());
+    	Direction d1 = ((DirectedAction) act1).getDirection();
+    	Direction d2 = ((DirectedAction) act2).getDirection();
+    	return a1.getX() + d1.xComponent() == a2.getX() + d2.xComponent() && a1.getY() + d1.yComponent() == a2.getY() + d2.yComponent();
+    }
+    
   //who can i attack?
     private List<Integer> canAttack(Agent agent) {
     	List<Integer> agents = new ArrayList<Integer>();
@@ -742,6 +911,7 @@ public class GameState {
     	int nextY = agent.getY() + y;
     	
     	this.world.map[agent.getX()][agent.getY()] = null;
+    	hash ^= squareKey(agent.getId(), agent.getX(), agent.getY()) ^ squareKey(agent.getId(), nextX, nextY);
     	
     	agent.setX(nextX);
     	agent.setY(nextY);
@@ -752,6 +922,7 @@ public class GameState {
     }
     
     private void attack(Agent atker, Agent atked) {
+    	hash ^= hpKey(atked.getId(), atked.getHp()) ^ hpKey(atked.getId(), atked.getHp() - atker.getAtkDmg());
     	atked.setHp(atked.getHp() - atker.getAtkDmg());
     	
     }
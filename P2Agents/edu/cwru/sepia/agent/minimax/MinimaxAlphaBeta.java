@@ -9,8 +9,14 @@ import edu.cwru.sepia.environment.model.state.State;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 
 import java.util.Comparator;
 
@@ -18,6 +24,28 @@ public class MinimaxAlphaBeta extends Agent {
 
     private final int numPlys;
 
+    // positions searched in earlier turns and earlier branches, null when turned off with tt=0
+    private final TranspositionTable table;
+
+    // milliseconds a turn may take, searching 1, 2, ... up to numPlys deep. -1 searches numPlys deep however long it takes
+    private final long budget;
+    // System.nanoTime() the turn ends at, only used with a budget
+    private volatile long deadline;
+
+    // threads=N searches on N threads (lazy SMP): helpers run the same iterative deepening on the same root and share
+    // the transposition table, so the main thread finds more of its positions already searched. The move is always
+    // the main thread's
+    private final int threads;
+    // the helpers' threads, shut down at the end of every episode and started again by the next one
+    private ForkJoinPool pool;
+    private final Search main;
+    private final Search[] helpers;
+
+    // set once the main thread is done with the turn, the helpers stop at the next node
+    private volatile boolean stopped;
+
+    private long lastNodes;
+
     public MinimaxAlphaBeta(int playernum, String[] args)
     {
         super(playernum);
@@ -29,6 +57,31 @@ public class MinimaxAlphaBeta extends Agent {
         }
 
         numPlys = Integer.parseInt(args[0]);
+
+        //optional settings after the plys, as name=value
+        Map<String, String> options = parseOptions(args);
+        int tableSize = Integer.parseInt(options.getOrDefault("tt", "" + (1 << 20)));
+        table = tableSize > 0 ? new TranspositionTable(tableSize) : null;
+        budget = Long.parseLong(options.getOrDefault("budget", "-1"));
+        threads = Math.max(1, Integer.parseInt(options.getOrDefault("threads", "1")));
+
+        main = new Search(0);
+        helpers = new Search[threads - 1];
+        for(int i = 0; i < helpers.length; i++) helpers[i] = new Search(i + 1);
+        pool = threads > 1 ? new ForkJoinPool(threads - 1) : null;
+    }
+
+    /**
+     * Reads the optional name=value args that follow the number of plys. Anything else is reported and skipped.
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+    	Map<String, String> options = new LinkedHashMap<String, String>();
+    	for(int i = 1; i < args.length; i++) {
+    		String[] option = args[i].split("=", 2);
+    		if(option.length == 2) options.put(option[0].trim().toLowerCase(), option[1].trim());
+    		else System.err.println("Ignoring argument " + args[i] + ", expected name=value");
+    	}
+    	return options;
     }
 
     @Override
@@ -38,18 +91,61 @@ public class MinimaxAlphaBeta extends Agent {
 
     @Override
     public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
-        GameStateChild bestChild = alphaBetaSearch(new GameStateChild(newstate),
-                numPlys,
-                Double.NEGATIVE_INFINITY,
-                Double.POSITIVE_INFINITY);
+        long start = System.nanoTime();
+        if(table != null) table.newSearch();
+        GameStateChild root = new GameStateChild(newstate);
+        deadline = start + budget * 1000000;
+        stopped = false;
+
+        if(threads > 1 && pool.isShutdown()) pool = new ForkJoinPool(threads - 1);
+        List<ForkJoinTask<?>> running = new ArrayList<ForkJoinTask<?>>();
+        for(Search helper : helpers) running.add(pool.submit(() -> helper.deepen(root)));
+
+        SearchNode bestChild = main.deepen(root);
+
+        stopped = true;
+        long nodes = main.nodes;
+        for(int i = 0; i < running.size(); i++) {
+        	running.get(i).join();
+        	nodes += helpers[i].nodes;
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if(budget >= 0 || threads > 1) {
+        	System.out.printf("searched %d of %d plys in %.1f ms, %d nodes on %d threads (%.0f nodes/s)%n",
+        			main.completed, numPlys, seconds * 1000, nodes, threads, seconds > 0 ? nodes / seconds : 0.0);
+        	if(table != null) System.out.printf("transposition table hit rate %.2f%n", table.hitRate());
+        }
+        lastNodes = nodes;
+
+        System.out.println(bestChild.getAction());
+        return bestChild.getAction();
+    }
+
+    /**
+     * @return Nodes all threads searched in the last turn
+     */
+    public long getNodes() {
+    	return lastNodes;
+    }
 
-        System.out.println(bestChild.action);
-        return bestChild.action;
+    /**
+     * @return Deepest search the main thread finished in the last turn
+     */
+    public int getCompletedDepth() {
+    	return main.completed;
+    }
+
+    /**
+     * Forgets every position searched so far, so the next turn searches from scratch.
+     */
+    public void clearTable() {
+    	if(table != null) table.clear();
     }
 
     @Override
     public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
-
+    	if(pool != null) pool.shutdown();
     }
 
     @Override
@@ -83,51 +179,264 @@ public class MinimaxAlphaBeta extends Agent {
     	//at a particular state we have gamestate.getutility() for utility
     	//we also need to know which state we are at, aka max player vs min enemy
     	
-    	double val = maximize(node, depth, alpha, beta);
+    	SearchNode root = new SearchNode(node.state.copy(), MinimaxAlphaBeta.this::orderSearchNodes);
+    	SearchNode best = main.search(root, depth, alpha, beta);
+    	return best == root ? node : new GameStateChild(best.getAction(), node.state.resultOf(best.getAction()));
+    }
+
+    /**
+     * The state of one thread's search. The main thread's decides the move, helpers only fill the shared table.
+     */
+    private class Search {
+    	
+    	// 0 for the main thread. Odd helpers search one ply deeper than the others so the threads spread out
+    	private final int id;
     	
-    	//find node that corresponds to our max
-    	//System.out.println("chosen node with val " + val);
-    	for(GameStateChild child : node.state.getChildren()) {
-    		if(child.state.getUtility() == val) return child;
+    	// depth of the iteration in progress, a node's ply is how far below the root it is
+    	private int searchDepth;
+    	private boolean outOfTime;
+    	private int completed;
+    	private long nodes;
+    	
+    	// principal variation of the iteration in progress, pv[ply] holds the line found below the node at that ply
+    	// as hashes of the positions along it. lastPv is the line of the last completed iteration
+    	private long[][] pv;
+    	private int[] pvLength;
+    	private long[] lastPv = new long[0];
+    	
+    	private final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+    	
+    	Search(int id) {
+    		this.id = id;
     	}
     	
-    	//sometimes you just dont succeed so lets just stay in place until something works
-    	return node;
-    }
+    	/**
+    	 * Searches the turn the way the settings ask for, to numPlys straight away or 1, 2, ... deep while there is
+    	 * time. Helpers keep going until the main thread is done.
+    	 *
+    	 * @return The best child from the deepest finished search
+    	 */
+    	SearchNode deepen(GameStateChild start) {
+    		nodes = 0;
+    		lastPv = new long[0];
+    		
+    		//every thread gets its own copy of the state to make and unmake moves on, the iterations share the root's children
+    		SearchNode root = new SearchNode(start.state.copy(), MinimaxAlphaBeta.this::orderSearchNodes);
+    		if(budget < 0 && threads == 1) {
+    			completed = numPlys;
+    			return search(root, numPlys, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    		}
+    		
+    		//iterative deepening, each depth searches the line the last one found first
+    		//the main thread's first depth always finishes so there is a move to return
+    		SearchNode best = root;
+    		completed = 0;
+    		for(int depth = 1 + id % 2; depth <= numPlys; depth++) {
+    			SearchNode child = search(root, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    			if(outOfTime) break;
+    			best = child;
+    			completed = depth;
+    		}
+    		return best;
+    	}
+    	
+    	SearchNode search(SearchNode node, int depth, double alpha, double beta) {
+    		searchDepth = depth;
+    		outOfTime = false;
+    		pv = new long[depth + 1][depth + 1];
+    		pvLength = new int[depth + 1];
+    	
+    		//the root is a max node that keeps the child its value came from
+    		if(depth == 0) return node;
+    		List<SearchNode> children = node.getChildren();
+    		if(children == null) return node;
+    	
+    		long hash = node.getHash();
+    		long tableMove = table != null && table.probe(hash, entry) ? entry.move : 0;
+    	
+    		double alphaIn = alpha;
+    		double max = Double.NEGATIVE_INFINITY;
+    		node.best = null;
+    	
+    		for(SearchNode child : orderChildren(children, 0, tableMove)) {
+    			node.enter(child);
+    			double value = minimize(child, depth - 1, alpha, beta);
+    			node.leave();
+    			child.forgetChildren();
+    			if(outOfTime) break;
+    			if(value > max || node.best == null) {
+    				max = value;
+    				node.best = child;
+    				extendPv(0, child.getHash());
+    			}
+    		
+    			if(max >= beta) break;
+    		
+    			alpha = Math.max(max, alpha);
+    		}
+    		if(node.best == null) return node;
+    	
+    		//System.out.println("chosen node with val " + max);
+    		if(!outOfTime) lastPv = Arrays.copyOf(pv[0], pvLength[0]);
+    		store(hash, depth, max, alphaIn, beta, node.best.getHash());
+    		return node.best;
+    	}
 
-    //methods to circumvent the need for player tracking variable
-    private double maximize(GameStateChild node, int depth, double alpha, double beta) {
+    	//methods to circumvent the need for player tracking variable
+    	private double maximize(SearchNode node, int depth, double alpha, double beta) {
+    	
+    		int ply = searchDepth - depth;
+    		pvLength[ply] = ply;
+    		nodes++;
+    		if(timeIsUp()) return 0;
+    	
+    		//leaf node
+    		if(depth == 0) return node.getUtility();
+    	
+    		//a position already searched at least this deep may settle it, or at least narrow the window
+    		//either way it is looked up before the children are generated, a cutoff here never builds them
+    		long hash = node.getHash();
+    		long tableMove = 0;
+    		if(table != null && table.probe(hash, entry)) {
+    			tableMove = entry.move;
+    			if(entry.depth >= depth) {
+    				if(entry.bound == TranspositionTable.EXACT) return entry.value;
+    				if(entry.bound == TranspositionTable.LOWER) alpha = Math.max(alpha, entry.value);
+    				else beta = Math.min(beta, entry.value);
+    				if(alpha >= beta) return entry.value;
+    			}
+    		}
+    	
+    		//terminal node
+    		List<SearchNode> children = node.getChildren();
+    		if(children == null) return node.getUtility();
     	
-    	//terminal node
-    	if(depth == 0 || orderChildrenWithHeuristics(node.state.getChildren()) == null) return node.state.getUtility();
-    	double max = Double.NEGATIVE_INFINITY; //init to min
+    		double alphaIn = alpha;
+    		double max = Double.NEGATIVE_INFINITY; //init to min
+    		node.best = null;
     	
-    	for(GameStateChild child : orderChildrenWithHeuristics(node.state.getChildren())) {
+    		for(SearchNode child : orderChildren(children, ply, tableMove)) {
     		
-    		max = Math.max(max, minimize(child, depth - 1, alpha, beta));
+    			node.enter(child);
+    			double value = minimize(child, depth - 1, alpha, beta);
+    			node.leave();
+    			child.forgetChildren();
+    			if(outOfTime) return 0;
+    			if(value > max || node.best == null) {
+    				max = value;
+    				node.best = child;
+    				extendPv(ply, child.getHash());
+    			}
     		
-    		if(max >= beta) return max; //prune
+    			if(max >= beta) break; //prune
     		
-    		alpha = Math.max(max, alpha);
+    			alpha = Math.max(max, alpha);
+    		}
+    	
+    		store(hash, depth, max, alphaIn, beta, node.best.getHash());
+    		return max;
     	}
-    	return max;
-    }
     
-    private double minimize(GameStateChild node, int depth, double alpha, double beta) {
+    	private double minimize(SearchNode node, int depth, double alpha, double beta) {
 
-    	if(depth == 0 || orderChildrenWithHeuristics(node.state.getChildren()) == null) return node.state.getUtility();
+    		int ply = searchDepth - depth;
+    		pvLength[ply] = ply;
+    		nodes++;
+    		if(timeIsUp()) return 0;
     	
-    	double min = Double.POSITIVE_INFINITY; //you know the drill
+    		if(depth == 0) return node.getUtility();
     	
-    	for(GameStateChild child : orderChildrenWithHeuristics(node.state.getChildren())) {
+    		long hash = node.getHash();
+    		long tableMove = 0;
+    		if(table != null && table.probe(hash, entry)) {
+    			tableMove = entry.move;
+    			if(entry.depth >= depth) {
+    				if(entry.bound == TranspositionTable.EXACT) return entry.value;
+    				if(entry.bound == TranspositionTable.LOWER) alpha = Math.max(alpha, entry.value);
+    				else beta = Math.min(beta, entry.value);
+    				if(alpha >= beta) return entry.value;
+    			}
+    		}
+    	
+    		List<SearchNode> children = node.getChildren();
+    		if(children == null) return node.getUtility();
+    	
+    		double alphaIn = alpha;
+    		double betaIn = beta;
+    		double min = Double.POSITIVE_INFINITY; //you know the drill
+    		node.best = null;
+    	
+    		for(SearchNode child : orderChildren(children, ply, tableMove)) {
     		
-    		min = Math.min(min, maximize(child, depth - 1, alpha, beta));
+    			node.enter(child);
+    			double value = maximize(child, depth - 1, alpha, beta);
+    			node.leave();
+    			child.forgetChildren();
+    			if(outOfTime) return 0;
+    			if(value < min || node.best == null) {
+    				min = value;
+    				node.best = child;
+    				extendPv(ply, child.getHash());
+    			}
     		
-    		if(min <= alpha) return min;
+    			if(min <= alpha) break;
     		
-    		beta = Math.min(min, beta);
+    			beta = Math.min(min, beta);
+    		}
+    	
+    		store(hash, depth, min, alphaIn, betaIn, node.best.getHash());
+    		return min;
+    	}
+    
+    	/**
+    	 * Records a searched position. A value outside the window it was searched with is only a bound.
+    	 */
+    	private void store(long hash, int depth, double value, double alpha, double beta, long bestMove) {
+    		//a search that ran out of time didn't look at everything under this node
+    		if(table == null || outOfTime) return;
+    	
+    		byte bound = TranspositionTable.EXACT;
+    		if(value <= alpha) bound = TranspositionTable.UPPER;
+    		else if(value >= beta) bound = TranspositionTable.LOWER;
+    		table.store(hash, depth, value, bound, bestMove);
+    	}
+    
+    	/**
+    	 * Puts the best move the table knows for this position in front of the children, which are in heuristic order
+    	 * already, and the move the last iteration's principal variation made at this ply in front of that.
+    	 */
+    	private List<SearchNode> orderChildren(List<SearchNode> children, int ply, long tableMove) {
+    		List<SearchNode> ordered = moveFirst(children, tableMove);
+    		if(ply < lastPv.length) ordered = moveFirst(ordered, lastPv[ply]);
+    		return ordered;
+    	}
+    
+    	//the best move an earlier search found here is the most likely to cut off again, so it goes first
+    	private List<SearchNode> moveFirst(List<SearchNode> children, long move) {
+    		if(move == 0) return children;
+    	
+    		for(int i = 0; i < children.size(); i++) {
+    			if(children.get(i).getHash() == move) {
+    				children.add(0, children.remove(i));
+    				break;
+    			}
+    		}
+    		return children;
+    	}
+    
+    	//a new best move at this ply, the line below it is the one its child just found
+    	private void extendPv(int ply, long move) {
+    		pv[ply][ply] = move;
+    		int length = pvLength[ply + 1];
+    		System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, length - ply - 1);
+    		pvLength[ply] = Math.max(length, ply + 1);
+    	}
+    
+    	private boolean timeIsUp() {
+    		if(!outOfTime && id > 0 && stopped) outOfTime = true;
+    		if(!outOfTime && budget >= 0 && (searchDepth > 1 || id > 0) && System.nanoTime() - deadline > 0) outOfTime = true;
+    		return outOfTime;
     	}
-    	return min;
     }
     
     /**
@@ -144,27 +453,39 @@ public class MinimaxAlphaBeta extends Agent {
      * @return The list of children sorted by your heuristic.
      */
     public List<GameStateChild> orderChildrenWithHeuristics(List<GameStateChild> children)
+    {
+    	return orderByHeuristics(children, child -> child.action, child -> child.state.getUtility());
+    }
+    
+    /**
+     * The same order for the search, whose children only keep their move and the utility of the position it leads to.
+     */
+    private List<SearchNode> orderSearchNodes(List<SearchNode> children) {
+    	return orderByHeuristics(children, SearchNode::getAction, SearchNode::getUtility);
+    }
+    
+    private static <T> List<T> orderByHeuristics(List<T> children, Function<T, Map<Integer, Action>> actionOf, ToDoubleFunction<T> utilityOf)
     {
     	//goal is to kill archer
     	//attack is highest priority, so we want to get as many as possible
     	//so simple hierarchy is
     	//2 attacks > 1 attack > no attacks
     	
-    	List<GameStateChild> orderedChildren = new ArrayList<GameStateChild>();
-    	List<GameStateChild> orderedMoves = new ArrayList<GameStateChild>();
+    	List<T> orderedChildren = new ArrayList<T>();
+    	List<T> orderedMoves = new ArrayList<T>();
     	
     	//System.out.println("node expansion size: " + children.size());
     	if(children == null) return null;
-    	for(GameStateChild child : children) {
+    	for(T child : children) {
     		int atks = 0;
     		
-    		for(Action action : child.action.values()) {
+    		for(Action action : actionOf.apply(child).values()) {
     			if(action.getType() == ActionType.PRIMITIVEATTACK) {
     				atks++;
     			}
     		}
     		
-    		if(atks == child.action.size()) {
+    		if(atks == actionOf.apply(child).size()) {
     			//System.out.println(atks);
     			orderedChildren.add(0, child); 
     			//System.out.println(child.action.containsValue(ActionType.PRIMITIVEATTACK));
@@ -176,19 +497,19 @@ public class MinimaxAlphaBeta extends Agent {
     		}
     	}
     	
-    	orderedMoves.sort(new Comparator<GameStateChild>() {
+    	orderedMoves.sort(new Comparator<T>() {
     		@Override
-    		public int compare(GameStateChild o1, GameStateChild o2) {
-    	    	if(o1.state.getUtility() < o2.state.getUtility()) return 1;
-    	    	else if (o1.state.getUtility() > o2.state.getUtility()) return -1;
+    		public int compare(T o1, T o2) {
+    	    	if(utilityOf.applyAsDouble(o1) < utilityOf.applyAsDouble(o2)) return 1;
+    	    	else if (utilityOf.applyAsDouble(o1) > utilityOf.applyAsDouble(o2)) return -1;
     	    	else return 0;
     	    }
     	});
     	
     	orderedChildren.addAll(orderedMoves); //append sorted movement options
     	
-    	for(GameStateChild gsc : orderedChildren) {
-    		gsc.state.getUtility();
+    	for(T child : orderedChildren) {
+    		utilityOf.applyAsDouble(child);
     	}
 
         return orderedChildren;
@@ -0,0 +1,128 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * A position in the alpha-beta search.
+ *
+ * Every node of one search shares a single GameState, which the search moves down the tree with makeMove() and back
+ * up with unmakeMove(), so it is at a node's position whenever that node is being searched. A node keeps only the move
+ * that led to it, the hash of its position and its utility, worked out while the children were generated.
+ *
+ * The children are generated and put in heuristic order the first time they are asked for, then kept, so checking
+ * for a terminal position and looping over the moves doesn't generate them again. A node that is cut off by the
+ * transposition table never generates them at all.
+ *
+ * The search records the child its value came from in best, so the move is known without looking for a child with
+ * a matching value.
+ */
+public class SearchNode {
+
+	private final GameState state;
+	private final UnaryOperator<List<SearchNode>> ordering;
+
+	// null at the root
+	private final Map<Integer, Action> action;
+	private final long hash;
+	// NaN until the root's is asked for, children get theirs when they are generated
+	private double utility;
+
+	private boolean expanded = false;
+	// null for a terminal position, one side has no units left
+	private List<SearchNode> children;
+
+	// the child the last search of this node got its value from
+	SearchNode best;
+
+	/**
+	 * A root to search from.
+	 *
+	 * @param state The position, the search makes and unmakes its moves on it
+	 * @param ordering Puts a list of children in the order to search them
+	 */
+	public SearchNode(GameState state, UnaryOperator<List<SearchNode>> ordering) {
+		this(state, ordering, null, state.getHash(), Double.NaN);
+	}
+
+	private SearchNode(GameState state, UnaryOperator<List<SearchNode>> ordering, Map<Integer, Action> action, long hash, double utility) {
+		this.state = state;
+		this.ordering = ordering;
+		this.action = action;
+		this.hash = hash;
+		this.utility = utility;
+	}
+
+	/**
+	 * @return The state the whole search shares, at this node's position only while this node is being searched
+	 */
+	public GameState getState() {
+		return state;
+	}
+
+	/**
+	 * @return The move from the parent to this node, null at the root
+	 */
+	public Map<Integer, Action> getAction() {
+		return action;
+	}
+
+	public long getHash() {
+		return hash;
+	}
+
+	public double getUtility() {
+		if(Double.isNaN(utility)) utility = state.getUtility();
+		return utility;
+	}
+
+	/**
+	 * Moves the shared state to the child's position.
+	 */
+	public void enter(SearchNode child) {
+		state.makeMove(child.action);
+	}
+
+	/**
+	 * Moves the shared state back from the child's position to this node's.
+	 */
+	public void leave() {
+		state.unmakeMove();
+	}
+
+	/**
+	 * @return The children in heuristic order, generated on the first call while the state is at this node.
+	 * Null if the position is terminal. The list is the node's own, reordering it changes the order later calls return.
+	 */
+	public List<SearchNode> getChildren() {
+		if(!expanded) {
+			expanded = true;
+			List<Map<Integer, Action>> moves = state.getMoves();
+			if(moves != null) {
+				//each move is made just long enough to hash and score the position it leads to
+				List<SearchNode> generated = new ArrayList<SearchNode>(moves.size());
+				for(Map<Integer, Action> move : moves) {
+					state.makeMove(move);
+					generated.add(new SearchNode(state, ordering, move, state.getHash(), state.getUtility()));
+					state.unmakeMove();
+				}
+				children = ordering.apply(generated);
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * Drops the children once the search is done with this node, so only the nodes on the current path hold theirs.
+	 * They are generated again if the node is searched again.
+	 */
+	public void forgetChildren() {
+		expanded = false;
+		children = null;
+		best = null;
+	}
+}
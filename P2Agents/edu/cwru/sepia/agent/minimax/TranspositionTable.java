@@ -0,0 +1,147 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size transposition table for MinimaxAlphaBeta, keyed by GameState.getHash().
+ *
+ * Every entry holds the depth a position was searched to, its value, whether the value is exact or only a bound
+ * because of a cutoff, and the best move found, stored as the hash of the position that move leads to.
+ *
+ * One entry per slot, depth-preferred: a slot keeps the deeper search unless the entry in it is from an earlier turn.
+ * The entries are kept in parallel arrays so the table is allocated once and never grows.
+ *
+ * Several search threads share one table without locks. The key of an entry is stored xor'ed with its other words,
+ * so an entry that one thread read while another was writing it doesn't match its hash and reads as a miss.
+ */
+public class TranspositionTable {
+
+	public static final byte EXACT = 0;
+	// the value is at least this, the search was cut off above beta
+	public static final byte LOWER = 1;
+	// the value is at most this, no move reached alpha
+	public static final byte UPPER = 2;
+
+	/**
+	 * What probe found for a position. Every search thread fills its own.
+	 */
+	public static final class Entry {
+		public int depth;
+		public double value;
+		public byte bound;
+		// hash of the position after the best move, 0 if none is known
+		public long move;
+	}
+
+	private final long[] keys;
+	private final long[] values;
+	private final long[] moves;
+	// depth, bound and age of the entry packed together
+	private final long[] infos;
+	private final int mask;
+
+	private volatile int age = 0;
+
+	private final LongAdder probes = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+
+	/**
+	 * @param size Number of entries, rounded up to a power of two
+	 */
+	public TranspositionTable(int size) {
+		int cap = Integer.highestOneBit(Math.max(size, 16) - 1) << 1;
+		keys = new long[cap];
+		values = new long[cap];
+		moves = new long[cap];
+		infos = new long[cap];
+		mask = cap - 1;
+
+		//age 0 is never current, so the empty slots count as old
+		age = 1;
+	}
+
+	/**
+	 * Starts a new turn. Entries from earlier turns stay usable but are replaced first.
+	 */
+	public void newSearch() {
+		age++;
+		probes.reset();
+		hits.reset();
+	}
+
+	/**
+	 * Forgets every entry.
+	 */
+	public void clear() {
+		Arrays.fill(infos, 0);
+		Arrays.fill(keys, 0);
+	}
+
+	/**
+	 * @param hash Hash of the position
+	 * @param entry Filled in with what is stored for the position
+	 * @return True if the position is in the table
+	 */
+	public boolean probe(long hash, Entry entry) {
+		probes.increment();
+		int slot = (int) hash & mask;
+		long value = values[slot];
+		long move = moves[slot];
+		long info = infos[slot];
+		if(info == 0 || (keys[slot] ^ value ^ move ^ info) != hash) return false;
+
+		entry.depth = depth(info);
+		entry.value = Double.longBitsToDouble(value);
+		entry.bound = (byte) (info >>> 16 & 0xff);
+		entry.move = move;
+		hits.increment();
+		return true;
+	}
+
+	/**
+	 * Stores a searched position unless its slot holds a deeper search from this turn, of this position or another.
+	 *
+	 * @param hash Hash of the position
+	 * @param depth Plys searched below it
+	 * @param value Value found
+	 * @param bound EXACT, LOWER or UPPER
+	 * @param move Hash of the position after the best move, 0 if none
+	 */
+	public void store(long hash, int depth, double value, byte bound, long move) {
+		int slot = (int) hash & mask;
+		long old = infos[slot];
+		if(age(old) == age && depth(old) > depth) return;
+
+		//an earlier result for the same position may know a best move when the new one does not
+		long oldMove = moves[slot];
+		if(move == 0 && (keys[slot] ^ values[slot] ^ oldMove ^ old) == hash) move = oldMove;
+
+		long bits = Double.doubleToRawLongBits(value);
+		long info = (long) age << 32 | (bound & 0xffL) << 16 | (depth & 0xffffL);
+		values[slot] = bits;
+		moves[slot] = move;
+		infos[slot] = info;
+		keys[slot] = hash ^ bits ^ move ^ info;
+	}
+
+	private static int depth(long info) {
+		return (int) (info & 0xffff);
+	}
+
+	private static int age(long info) {
+		return (int) (info >>> 32);
+	}
+
+	/**
+	 * @return Fraction of the probes since the last newSearch that found their position
+	 */
+	public double hitRate() {
+		long total = probes.sum();
+		return total == 0 ? 0 : (double) hits.sum() / total;
+	}
+
+	public int size() {
+		return keys.length;
+	}
+}
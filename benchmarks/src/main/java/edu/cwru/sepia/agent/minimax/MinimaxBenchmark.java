@@ -0,0 +1,95 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.agent.sim.Scenario;
+import edu.cwru.sepia.environment.model.state.State;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parallel alpha-beta scaling on the combat scenario of the headless simulator (two footmen, two archers, a wall of
+ * trees).
+ *
+ * search is one turn searched to a fixed depth with an empty transposition table, on 1 to 8 threads. The primary
+ * result is searches per second, so the time to reach the depth is its inverse. The nodes counter is every node the
+ * threads visited, per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class MinimaxBenchmark {
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	@Param({ "4", "5" })
+	public int plys;
+
+	private MinimaxAlphaBeta agent;
+	private State.StateView view;
+
+	private PrintStream out;
+
+	/**
+	 * Nodes searched, reported per second next to the searches per second.
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@org.openjdk.jmh.annotations.State(Scope.Thread)
+	public static class Nodes {
+		public long nodes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			nodes = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		//the agent reports every turn on System.out, which would end up in the measurements
+		out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+		view = Scenario.combat().build().getView(0);
+		agent = new MinimaxAlphaBeta(0, new String[] { "" + plys, "threads=" + threads });
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		agent.terminalStep(view, null);
+		System.setOut(out);
+	}
+
+	//outside the measurement, clearing the default table takes a few milliseconds
+	@Setup(Level.Invocation)
+	public void clearTable() {
+		agent.clearTable();
+	}
+
+	@Benchmark
+	public Map<Integer, Action> search(Nodes counter) {
+		Map<Integer, Action> actions = agent.middleStep(view, null);
+		counter.nodes += agent.getNodes();
+		return actions;
+	}
+}
@@ -0,0 +1,106 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Stack;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The planner's heuristics side by side on the same maps and goals: the linear sum of what is still missing that the
+ * planner used to have, the relaxed plan heuristic, and the relaxed plan heuristic with the pattern database.
+ *
+ * search is one weighted A* run (astarweight=3) from the start state. Next to the searches per second it reports the
+ * nodes the last search expanded and the cost of the plan it found, so the node expansion reduction and what it does
+ * to the plan can be read off directly. The searches are deterministic, every one in an iteration expands the same.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class HeuristicBenchmark {
+
+	@Param({ "linear", "relaxed", "pdb" })
+	public String heuristic;
+
+	@Param({ "20", "32" })
+	public int mapSize;
+
+	@Param({ "1000", "3000" })
+	public int goal;
+
+	@Param({ "false", "true" })
+	public boolean buildPeasants;
+
+	// false searches single moves, harvests and deposits, the way the planner did when the heuristics were compared
+	@Param({ "false", "true" })
+	public boolean macros;
+
+	private SyntheticMap map;
+	private PlannerAgent agent;
+
+	private PrintStream out;
+
+	/**
+	 * What the last search did, reported at the end of every iteration.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Search {
+		public long expanded;
+		public long planCost;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		//the planner reports every search on System.out, which would end up in the measurements
+		out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+		GameState.linearHeuristic = heuristic.equals("linear");
+		GameState.patternDatabase = heuristic.equals("pdb");
+		GameState.macroActions = macros;
+
+		map = new SyntheticMap(mapSize, mapSize / 2, goal, goal, 42);
+		agent = new PlannerAgent(0, new String[] { "" + goal, "" + goal, "" + buildPeasants, "cache=false", "astarweight=3" });
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.setOut(out);
+		GameState.linearHeuristic = false;
+		GameState.patternDatabase = true;
+		GameState.macroActions = true;
+	}
+
+	@Benchmark
+	public Stack<StripsAction> search(Search search) {
+		Stack<StripsAction> plan = agent.AstarSearch(new GameState(map, goal, goal, buildPeasants));
+
+		double cost = 0;
+		if(plan != null) {
+			for(StripsAction step : plan) cost += step.getCost();
+		}
+		search.expanded = GameState.metrics.getExpanded();
+		search.planCost = Math.round(cost);
+		return plan;
+	}
+}
@@ -0,0 +1,175 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The planner's A* open and closed lists against the ones it used to have, on the same maps and goals.
+ *
+ * priorityQueue is the old pair: a PriorityQueue next to a HashSet of the open states, where a cheaper copy of an
+ * open state is found by walking the set and swapped in with PriorityQueue.remove, and a HashSet of closed states.
+ * openList is the indexed heap (OpenList) with the packed closed set (StateKeySet). Everything else is the same in
+ * both: the same start state, successors, order (cost + 3 * heuristic, ties to the lower heuristic) and goal test,
+ * so both expand the same states. The search takes single moves, harvests and deposits like the planner did when
+ * the lists were replaced. The linear heuristic keeps many more states open than the relaxed plan heuristic, which is
+ * where the two differ. The start state is built once per trial, so the heuristic caches are warm after the first
+ * search and the time goes to the lists and successor generation.
+ *
+ * Next to the searches per second every benchmark reports the nodes the last search expanded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class OpenListBenchmark {
+
+	private static final double WEIGHT = 3;
+
+	@Param({ "linear", "relaxed" })
+	public String heuristic;
+
+	@Param({ "16", "32" })
+	public int mapSize;
+
+	@Param({ "1000", "3000" })
+	public int goal;
+
+	@Param({ "false", "true" })
+	public boolean buildPeasants;
+
+	private GameState start;
+	private Comparator<GameState> order;
+
+	private PrintStream out;
+
+	/**
+	 * What the last search did, reported at the end of every iteration.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Search {
+		public long expanded;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		//the planner reports on System.out, which would end up in the measurements
+		out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+		GameState.linearHeuristic = heuristic.equals("linear");
+		GameState.patternDatabase = false;
+		GameState.macroActions = false;
+
+		start = new GameState(new SyntheticMap(mapSize, mapSize / 2, goal, goal, 42), goal, goal, buildPeasants);
+		order = Comparator.<GameState>comparingDouble((s) -> s.getCost() + WEIGHT * s.heuristic())
+				.thenComparingDouble(GameState::heuristic);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.setOut(out);
+		GameState.linearHeuristic = false;
+		GameState.patternDatabase = true;
+		GameState.macroActions = true;
+	}
+
+	@Benchmark
+	public Stack<StripsAction> priorityQueue(Search search) {
+		PriorityQueue<GameState> openQueue = new PriorityQueue<GameState>(order);
+		Set<GameState> openSet = new HashSet<GameState>();
+		Set<GameState> closedSet = new HashSet<GameState>();
+
+		openQueue.add(start);
+		openSet.add(start);
+		search.expanded = 0;
+
+		while(!openQueue.isEmpty()) {
+			GameState current = openQueue.remove();
+			openSet.remove(current);
+
+			if(current.isGoal()) return current.getPlan();
+
+			closedSet.add(current);
+			search.expanded++;
+
+			for(Iterator<GameState> children = current.successors(); children.hasNext();) {
+				GameState child = children.next();
+				if(closedSet.contains(child)) continue;
+
+				if(!openSet.contains(child)) {
+					openQueue.add(child);
+					openSet.add(child);
+					continue;
+				}
+
+				GameState first = null;
+				for(GameState possible : openSet) {
+					if(possible.equals(child)) first = possible;
+				}
+				if(first.getCost() > child.getCost()) {
+					openQueue.remove(first);
+					openQueue.add(child);
+					openSet.remove(first);
+					openSet.add(child);
+				}
+			}
+		}
+		return null;
+	}
+
+	@Benchmark
+	public Stack<StripsAction> openList(Search search) {
+		OpenList openList = new OpenList(order);
+		StateKeySet closedSet = new StateKeySet(GameState.keyWidth());
+
+		openList.add(start);
+		search.expanded = 0;
+
+		while(!openList.isEmpty()) {
+			GameState current = openList.poll();
+
+			if(current.isGoal()) return current.getPlan();
+
+			closedSet.add(current.key());
+			search.expanded++;
+
+			for(Iterator<GameState> children = current.successors(); children.hasNext();) {
+				GameState child = children.next();
+				if(closedSet.contains(child.key())) continue;
+
+				GameState open = openList.get(child);
+
+				if(open == null) openList.add(child);
+				else if(open.getCost() > child.getCost()) openList.replace(child);
+			}
+		}
+		return null;
+	}
+}
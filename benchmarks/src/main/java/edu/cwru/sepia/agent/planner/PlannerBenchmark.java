@@ -0,0 +1,98 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Planning on synthetic maps that grow in size, resource count and goal. The goal is used for both gold and wood.
+ *
+ * astar is a whole planning run, start state (distance table and relaxed plan tables included) and weighted A* search
+ * (astarweight=3, the planner's A* is optimal by default but too slow on the larger goals). The pattern database is
+ * loaded by the first start state in setup and kept for the scenario, so it is not part of the time.
+ * generateChildren expands every state along the plan for the map once, so it measures successor generation with
+ * warm heuristic caches.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PlannerBenchmark {
+
+	@Param({ "16", "32", "64" })
+	public int mapSize;
+
+	@Param({ "4", "16" })
+	public int resources;
+
+	@Param({ "200", "1000", "5000", "10000" })
+	public int goal;
+
+	@Param({ "false", "true" })
+	public boolean buildPeasants;
+
+	private SyntheticMap map;
+	private PlannerAgent agent;
+
+	// states along the plan, the ones generateChildren expands
+	private List<GameState> states;
+
+	private PrintStream out;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		//the planner reports every search on System.out, which would end up in the measurements
+		out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+		map = new SyntheticMap(mapSize, resources, goal, goal, 42);
+		agent = new PlannerAgent(0, new String[] { "" + goal, "" + goal, "" + buildPeasants, "cache=false", "astarweight=3" });
+
+		GameState state = new GameState(map, goal, goal, buildPeasants);
+		Stack<StripsAction> plan = agent.AstarSearch(state);
+		if(plan == null) throw new IllegalStateException("No plan for " + mapSize + "x" + mapSize + " with " + resources + " resources");
+
+		states = new ArrayList<GameState>();
+		while(!plan.isEmpty()) {
+			states.add(state);
+			state = plan.pop().apply(state);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.setOut(out);
+	}
+
+	@Benchmark
+	public Stack<StripsAction> astar() {
+		return agent.AstarSearch(new GameState(map, goal, goal, buildPeasants));
+	}
+
+	@Benchmark
+	public void generateChildren(Blackhole blackhole) {
+		for(GameState state : states) blackhole.consume(state.generateChildren());
+	}
+}
@@ -0,0 +1,91 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generated maps for the benchmarks, standing in for SEPIA's StateView. A square map with the townhall a quarter of the
+ * way in, one peasant next to it, and gold mines and trees scattered around with a fixed seed, so every run of a
+ * benchmark plans on the same map. The resources hold twice the goal between them.
+ */
+public class SyntheticMap implements PlanningMap {
+
+	private static final int TOWNHALL_ID = 0;
+	private static final int PEASANT_ID = 1;
+	private static final int FIRST_RESOURCE_ID = 100;
+
+	private final int size;
+	private final List<Resource> resources = new ArrayList<Resource>();
+	private final List<Unit> units = new ArrayList<Unit>();
+
+	/**
+	 * @param size Width and height of the map, at least 8
+	 * @param resourceCount Number of resources, split between gold mines and trees, at least 2
+	 * @param requiredGold Gold goal the map has to be able to supply
+	 * @param requiredWood Wood goal the map has to be able to supply
+	 * @param seed Seed for the resource positions
+	 */
+	public SyntheticMap(int size, int resourceCount, int requiredGold, int requiredWood, long seed) {
+		this.size = size;
+
+		int townhall = size / 4;
+		units.add(new Unit(TOWNHALL_ID, townhall, townhall, "TownHall", true));
+		units.add(new Unit(PEASANT_ID, townhall + 1, townhall + 1, "Peasant", true));
+
+		//every free cell a few steps away from the townhall, in random order
+		List<Integer> cells = new ArrayList<Integer>();
+		for(int y = 0; y < size; y++) {
+			for(int x = 0; x < size; x++) {
+				if(Math.max(Math.abs(x - townhall), Math.abs(y - townhall)) >= 3) cells.add(y * size + x);
+			}
+		}
+		Collections.shuffle(cells, new Random(seed));
+
+		int mines = Math.max(1, resourceCount / 2);
+		int trees = Math.max(1, resourceCount - mines);
+
+		//the build benchmarks spend gold on peasants too, so there is some to spare
+		int goldEach = roundUp((2 * requiredGold + 2000) / mines);
+		int woodEach = roundUp(2 * requiredWood / trees);
+
+		for(int r = 0; r < mines + trees; r++) {
+			int cell = cells.get(r);
+			boolean gold = r < mines;
+			resources.add(new Resource(FIRST_RESOURCE_ID + r, cell % size, cell / size, gold, gold ? goldEach : woodEach));
+		}
+	}
+
+	// whole loads, and never an empty resource
+	private static int roundUp(int amount) {
+		return Math.max(100, (amount + 99) / 100 * 100);
+	}
+
+	@Override
+	public int getXExtent() { return size; }
+
+	@Override
+	public int getYExtent() { return size; }
+
+	@Override
+	public List<Resource> getResources() { return resources; }
+
+	@Override
+	public List<Unit> getUnits() { return units; }
+
+	@Override
+	public int getGold() { return 0; }
+
+	@Override
+	public int getWood() { return 0; }
+
+	@Override
+	public PeasantTemplate getPeasantTemplate() { return new PeasantTemplate(1, 400, 1); }
+
+	@Override
+	public int getSupplyCap() { return 3; }
+
+	@Override
+	public int getSupplyAmount() { return 1; }
+}
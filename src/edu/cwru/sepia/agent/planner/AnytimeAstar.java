@@ -0,0 +1,171 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * Anytime repairing A* (ARA*). The first pass orders states by cost + weight * heuristic with a large weight, which
+ * finds a plan quickly. Every pass after that lowers the weight and carries on from the open list of the pass before,
+ * so earlier work is reused instead of starting over. States that got cheaper after they were expanded in a pass are
+ * kept aside (the INCONS list of ARA*) and reopened at the start of the next pass.
+ *
+ * The search stops when a pass with weight 1 finishes or the time budget runs out, whichever comes first. The budget
+ * only applies once a plan exists, an empty handed planner is no use to the PEAgent.
+ *
+ * With an admissible heuristic the plan costs at most getBound() times the optimal cost.
+ */
+public class AnytimeAstar {
+
+	private final long budgetMillis;
+	private final double weightStep;
+
+	private double weight;
+	// weight of the last pass that ran to the end, a pass cut short by the deadline proves nothing about its weight
+	private double completedWeight = Double.POSITIVE_INFINITY;
+
+	// lowest cost each state has been reached with
+	private final Map<GameState, Double> bestCost = new HashMap<GameState, Double>();
+
+	private OpenList openList;
+	private Set<GameState> closedSet = new HashSet<GameState>();
+	private List<GameState> inconsistent = new ArrayList<GameState>();
+
+	private GameState incumbent = null;
+	private double bound = Double.POSITIVE_INFINITY;
+
+	private SearchMetrics metrics;
+
+	/**
+	 * @param budgetMillis Wall clock time the search may take once it has a plan
+	 * @param initialWeight Heuristic weight of the first pass, at least 1
+	 * @param weightStep How much the weight drops after every pass
+	 */
+	public AnytimeAstar(long budgetMillis, double initialWeight, double weightStep) {
+		this.budgetMillis = budgetMillis;
+		this.weight = Math.max(1, initialWeight);
+		this.weightStep = weightStep;
+	}
+
+	/**
+	 * @param startState The state which is being planned from
+	 * @return The best plan found in the budget, or null if no plan is found.
+	 */
+	public Stack<StripsAction> search(GameState startState) {
+		metrics = GameState.metrics;
+		long startTime = System.nanoTime();
+		long deadline = startTime + budgetMillis * 1000000L;
+
+		openList = new OpenList(this::compareWeighted);
+		openList.add(startState);
+		bestCost.put(startState, startState.getCost());
+
+		while(true) {
+			boolean finished = improvePath(deadline);
+			if(finished) completedWeight = weight;
+
+			if(incumbent != null) {
+				bound = Math.min(completedWeight, incumbent.getCost() / lowestF());
+				System.out.printf("ARA* weight %.2f%s: plan cost %.1f, at most %.2f times optimal%n", weight,
+						finished ? "" : " (cut short)", incumbent.getCost(), bound);
+			}
+
+			if(!finished || weight <= 1 || openList.isEmpty() && inconsistent.isEmpty()) break;
+
+			//next pass, lower the weight and move the inconsistent states back into a reordered open list
+			weight = Math.max(1, weight - weightStep);
+
+			List<GameState> open = openList.states();
+			open.addAll(inconsistent);
+			inconsistent.clear();
+			closedSet.clear();
+
+			openList = new OpenList(this::compareWeighted);
+			for(GameState state : open) {
+				//a state can be in the inconsistent list more than once, only the cheapest copy goes back in
+				if(state.getCost() > bestCost.get(state) || openList.contains(state)) continue;
+				openList.add(state);
+			}
+		}
+
+		long expanded = metrics.getExpanded();
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		System.out.printf("ARA* expanded %d nodes in %.3f s (%.0f expansions/s)%n", expanded, seconds, seconds > 0 ? expanded / seconds : 0.0);
+
+		return incumbent == null ? null : incumbent.getPlan();
+	}
+
+	/**
+	 * Expands states until nothing open can beat the incumbent under the current weight.
+	 *
+	 * @return False if the pass was cut short by the deadline
+	 */
+	private boolean improvePath(long deadline) {
+		while(!openList.isEmpty() && (incumbent == null || weighted(openList.peek()) < incumbent.getCost())) {
+
+			if(incumbent != null && System.nanoTime() > deadline) return false;
+
+			GameState current = openList.poll();
+
+			if(current.isGoal()) {
+				if(incumbent == null || current.getCost() < incumbent.getCost()) incumbent = current;
+				continue;
+			}
+
+			closedSet.add(current);
+			metrics.expanded();
+
+			List<GameState> children = current.generateChildren();
+			metrics.generated(children.size());
+
+			for(GameState child : children) {
+				Double known = bestCost.get(child);
+				if(known != null && known <= child.getCost()) {
+					metrics.duplicate();
+					continue;
+				}
+
+				bestCost.put(child, child.getCost());
+
+				if(closedSet.contains(child)) inconsistent.add(child);
+				else if(!openList.replace(child)) openList.add(child);
+			}
+			metrics.listSizes(openList.size(), closedSet.size());
+		}
+		return true;
+	}
+
+	/**
+	 * @return Lowest cost + heuristic over every state that could still lead to a cheaper plan
+	 */
+	private double lowestF() {
+		double lowest = incumbent.getCost();
+
+		for(GameState state : openList.states()) lowest = Math.min(lowest, state.getCost() + state.heuristic());
+		for(GameState state : inconsistent) lowest = Math.min(lowest, state.getCost() + state.heuristic());
+
+		return Math.max(lowest, Double.MIN_VALUE);
+	}
+
+	private double weighted(GameState state) {
+		return state.getCost() + weight * state.heuristic();
+	}
+
+	private int compareWeighted(GameState a, GameState b) {
+		int order = Double.compare(weighted(a), weighted(b));
+		return order != 0 ? order : Double.compare(a.heuristic(), b.heuristic());
+	}
+
+	/**
+	 * @return Suboptimality bound of the returned plan, infinite if there is no plan
+	 */
+	public double getBound() {
+		return bound;
+	}
+}
@@ -0,0 +1,166 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Walking distances on the map, with trees, mines, the townhall and the map edges in the way.
+ *
+ * A peasant that is "at" a resource or the townhall in the plan is really standing next to it, so every distance is
+ * the number of steps to the nearest free cell next to the target. There is one BFS per target (the townhall and every
+ * resource) when planning starts, each filling its slice of one flat int array with the steps from every cell. Target
+ * to target distances go in a second flat array, taken from the best cell next to the starting target. Lookups are an
+ * array read and never allocate.
+ */
+public class DistanceTable {
+
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	private static final int[] DX = { -1, 0, 1, -1, 1, -1, 0, 1 };
+	private static final int[] DY = { -1, -1, -1, 0, 0, 1, 1, 1 };
+
+	private final int width;
+	private final int height;
+	private final int cells;
+
+	private final boolean[] blocked;
+
+	// slot of the target standing on every cell, -1 if there is none
+	private final int[] targetAt;
+	private final int targets;
+
+	// steps from a cell to next to target t, at t * cells + cell
+	private final int[] steps;
+	// steps from next to target s to next to target t, at s * targets + t
+	private final int[] between;
+
+	/**
+	 * @param map The map planning starts from
+	 * @param walkers Unit ids that walk around and so don't block anything, the peasants
+	 * @param targetPositions Townhall and resource positions, the only places moves go to
+	 */
+	public DistanceTable(PlanningMap map, Set<Integer> walkers, List<Position> targetPositions) {
+		this.width = map.getXExtent();
+		this.height = map.getYExtent();
+		this.cells = width * height;
+
+		this.blocked = new boolean[cells];
+		for(PlanningMap.Resource resource : map.getResources()) {
+			block(resource.x, resource.y);
+		}
+		for(PlanningMap.Unit unit : map.getUnits()) {
+			if(!walkers.contains(unit.id)) block(unit.x, unit.y);
+		}
+
+		this.targets = targetPositions.size();
+		this.targetAt = new int[cells];
+		Arrays.fill(targetAt, -1);
+		for(int t = 0; t < targets; t++) {
+			Position pos = targetPositions.get(t);
+			if(inBounds(pos.x, pos.y)) targetAt[cell(pos.x, pos.y)] = t;
+		}
+
+		this.steps = new int[targets * cells];
+		int[] queue = new int[cells];
+		for(int t = 0; t < targets; t++) bfs(t, targetPositions.get(t), queue);
+
+		this.between = new int[targets * targets];
+		for(int s = 0; s < targets; s++) {
+			Position from = targetPositions.get(s);
+			for(int t = 0; t < targets; t++) {
+				between[s * targets + t] = s == t ? 0 : fromNextTo(from.x, from.y, t);
+			}
+		}
+	}
+
+	private void block(int x, int y) {
+		if(inBounds(x, y)) blocked[cell(x, y)] = true;
+	}
+
+	private boolean inBounds(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	private int cell(int x, int y) {
+		return y * width + x;
+	}
+
+	/**
+	 * Breadth first search out from every free cell next to a target, 8 way moves like SEPIA's.
+	 */
+	private void bfs(int t, Position target, int[] queue) {
+		int base = t * cells;
+		Arrays.fill(steps, base, base + cells, UNREACHABLE);
+
+		int head = 0;
+		int tail = 0;
+
+		for(int d = 0; d < DX.length; d++) {
+			int x = target.x + DX[d];
+			int y = target.y + DY[d];
+			if(!inBounds(x, y) || blocked[cell(x, y)] || steps[base + cell(x, y)] == 0) continue;
+
+			steps[base + cell(x, y)] = 0;
+			queue[tail++] = cell(x, y);
+		}
+
+		while(head < tail) {
+			int current = queue[head++];
+			int cx = current % width;
+			int cy = current / width;
+			int next = steps[base + current] + 1;
+
+			for(int d = 0; d < DX.length; d++) {
+				int x = cx + DX[d];
+				int y = cy + DY[d];
+				if(!inBounds(x, y) || blocked[cell(x, y)] || steps[base + cell(x, y)] != UNREACHABLE) continue;
+
+				steps[base + cell(x, y)] = next;
+				queue[tail++] = cell(x, y);
+			}
+		}
+	}
+
+	/**
+	 * @return Steps to next to target t from the best free cell next to (x, y)
+	 */
+	private int fromNextTo(int x, int y, int t) {
+		int best = UNREACHABLE;
+
+		for(int d = 0; d < DX.length; d++) {
+			int nx = x + DX[d];
+			int ny = y + DY[d];
+			if(!inBounds(nx, ny) || blocked[cell(nx, ny)]) continue;
+
+			best = Math.min(best, steps[t * cells + cell(nx, ny)]);
+		}
+		return best;
+	}
+
+	/**
+	 * Walking distance for a move. Peasants at a target are taken to be standing next to it.
+	 *
+	 * @param from Where the peasant is, a target or the cell it is standing on
+	 * @param to A target position
+	 * @return Steps the move takes, or UNREACHABLE
+	 */
+	public int distance(Position from, Position to) {
+		if(!inBounds(to.x, to.y) || !inBounds(from.x, from.y)) return UNREACHABLE;
+
+		int t = targetAt[cell(to.x, to.y)];
+		if(t < 0) return UNREACHABLE;
+
+		int s = targetAt[cell(from.x, from.y)];
+		if(s >= 0) return between[s * targets + t];
+
+		return steps[t * cells + cell(from.x, from.y)];
+	}
+
+	/**
+	 * @return True if a peasant at from can walk to next to the target at to
+	 */
+	public boolean reachable(Position from, Position to) {
+		return distance(from, to) != UNREACHABLE;
+	}
+}
@@ -1,18 +1,38 @@
 package edu.cwru.sepia.agent.planner;
 
+import edu.cwru.sepia.agent.planner.actions.BuildPeasant;
 import edu.cwru.sepia.agent.planner.actions.Deposit;
+import edu.cwru.sepia.agent.planner.actions.DepositK;
 import edu.cwru.sepia.agent.planner.actions.Harvest;
+import edu.cwru.sepia.agent.planner.actions.HarvestK;
 import edu.cwru.sepia.agent.planner.actions.Move;
+import edu.cwru.sepia.agent.planner.actions.MoveK;
+import edu.cwru.sepia.agent.planner.actions.SearchAction;
+import edu.cwru.sepia.agent.planner.actions.StateChanges;
 import edu.cwru.sepia.agent.planner.actions.StripsAction;
+import edu.cwru.sepia.agent.planner.actions.Trip;
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+import edu.cwru.sepia.environment.model.state.ResourceType;
 import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit;
+
+import java.io.File;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Stack;
+import java.util.TreeMap;
+import java.util.function.Predicate;
 
 /**
  * This class is used to represent the state of the game after applying one of the avaiable actions. It will also
@@ -45,27 +65,77 @@ import java.util.Stack;
  * I recommend storing the actions that generated the instance of the GameState in this class using whatever
  * class/structure you use to represent actions.
  */
-public class GameState implements Comparable<GameState> {
+public class GameState implements Comparable<GameState>, StateChanges {
 	
 	private static int requiredGold;
 	private static int requiredWood;
 	
+	//largest map side and carried amount the state key has room for (see peasantWord). Map sides are also kept to
+	//what the plan cache writes positions as, shorts
+	public static final int MAX_MAP_SIDE = Short.MAX_VALUE + 1;
+	public static final int MAX_CARGO = (1 << 15) - 1;
+	
 	public static Position townhallPos;
 	public static int townhallId;
 	
-	private Peasant bob;
+	//peasant building, read from the peasant template and the supply cap when planning starts
+	private static boolean buildPeasants;
+	private static int peasantGoldCost = 400;
+	public static int peasantTemplateId;
+	private static int maxPeasants = 1;
+	
+	//peasants by plan id (1, 2, 3...), the PEAgent maps these onto the real unit ids
+	private Map<Integer, Peasant> peasants = new TreeMap<Integer, Peasant>();
 	
 	private static Set<Position> resourcePos = new HashSet<Position>();
 	
+	//resource ids in a fixed order so every state packs its resources the same way, sorted so an id can be looked
+	//up with a binary search. Where each resource is and what it holds never changes, only the amounts left do
+	private static int[] resourceOrder;
+	private static Position[] resourcePositions;
+	private static boolean[] resourceGold;
+	
+	//walking distances between the townhall and the resources, built once the map is known
+	public static DistanceTable distances;
+	
+	//relaxed plan heuristic for this map, built once the map is known
+	private static RelaxedPlanHeuristic relaxedPlan;
+	
+	//search over whole gathering trips instead of single moves, harvests and deposits
+	public static boolean macroActions = true;
+	
+	//the linear sum of what is still missing that the relaxed plan heuristic replaced, kept as a baseline for the
+	//heuristic benchmark. It overestimates, so plans found with it are not optimal
+	public static boolean linearHeuristic = false;
+	
+	//exact costs of an abstract version of the scenario, saved in saves/pdb and only built the first time a scenario is seen
+	public static boolean patternDatabase = true;
+	private static final File PATTERN_DIR = new File("saves", "pdb");
+	private static PatternDatabase patterns;
+	//the scenario fingerprint patterns belongs to, so planning the same scenario again keeps it instead of loading it again
+	private static Long patternsFingerprint = null;
+	
+	//counters and timers of the current planning run, started over whenever planning starts
+	public static SearchMetrics metrics = new SearchMetrics();
+	
 	private int gold = 0;
 	private int wood = 0;
 	
 	private double cost = 0;
-	private double heuristic = 0;
+	private double heuristic = -1;
+	
+	//amounts left in resourceOrder. Children share the array with their parent until one of them harvests, most
+	//actions leave the resources alone and copying a table of dozens of trees into every child added up
+	private int[] amounts;
+	private boolean ownsAmounts = true;
 	
-	private Map<Integer, Resource> resources = new HashMap<Integer, Resource>();
+	//the plan is kept as a chain of parent pointers, each node only knows the action that produced it
+	//copying the whole plan into every child made each node cost as much as the depth of the search
+	private GameState parent = null;
+	private SearchAction action = null;
 	
-	private List<StripsAction> plan = new ArrayList<StripsAction>();
+	//packed form of the state used for equality, hashing and the closed set, built on first use
+	private long[] key = null;
 
     /**
      * Construct a GameState from a stateview object. This is used to construct the initial search node. All other
@@ -78,116 +148,223 @@ public class GameState implements Comparable<GameState> {
      * @param buildPeasants True if the BuildPeasant action should be considered
      */
     public GameState(State.StateView state, int playernum, int requiredGold, int requiredWood, boolean buildPeasants) {
+    	this(new StateViewMap(state, playernum), requiredGold, requiredWood, buildPeasants);
+    }
+    
+    /**
+     * Construct the initial search node from the planner's view of the map.
+     *
+     * @param map The map planning starts from
+     * @param requiredGold The goal amount of gold
+     * @param requiredWood The goal amount of wood
+     * @param buildPeasants True if the BuildPeasant action should be considered
+     */
+    public GameState(PlanningMap map, int requiredGold, int requiredWood, boolean buildPeasants) {
+    	
+    	if(map.getXExtent() > MAX_MAP_SIDE || map.getYExtent() > MAX_MAP_SIDE) {
+    		throw new IllegalArgumentException("Can't plan on a " + map.getXExtent() + "x" + map.getYExtent() + " map, sides are at most " + MAX_MAP_SIDE);
+    	}
     	
     	GameState.requiredGold = requiredGold;
     	GameState.requiredWood = requiredWood;
+    	GameState.buildPeasants = buildPeasants;
+    	GameState.metrics = new SearchMetrics();
+    	
+    	List<PlanningMap.Resource> mapResources = new ArrayList<PlanningMap.Resource>(map.getResources());
+    	mapResources.sort(Comparator.comparingInt((r) -> r.id));
     	
-    	state.getAllResourceNodes().stream().forEach((r) -> {
-    		Position pos = new Position(r.getXPosition(), r.getYPosition());
+    	GameState.resourceOrder = new int[mapResources.size()];
+    	GameState.resourcePositions = new Position[mapResources.size()];
+    	GameState.resourceGold = new boolean[mapResources.size()];
+    	this.amounts = new int[mapResources.size()];
+    	
+    	for(int r = 0; r < mapResources.size(); r++) {
+    		PlanningMap.Resource resource = mapResources.get(r);
+    		Position pos = new Position(resource.x, resource.y);
     		GameState.resourcePos.add(pos);
     		
-    		if(r.getType().name().toLowerCase().equals("gold_mine")) {
-    			resources.put(r.getID(), new Gold(r.getID(), pos, r.getAmountRemaining()));
-    		}
-    		else //name == "wood" 
-    		{
-    			resources.put(r.getID(), new Wood(r.getID(), pos, r.getAmountRemaining()));
-    		}
-    	});
+    		resourceOrder[r] = resource.id;
+    		resourcePositions[r] = pos;
+    		resourceGold[r] = resource.gold;
+    		amounts[r] = resource.amount;
+    	}
     	
-    	state.getAllUnits().stream().forEach((u) -> {
-    		Position pos = new Position(u.getXPosition(), u.getYPosition());
+    	//sorted by unit id so the PEAgent hands out the same plan ids
+    	List<Integer> peasantIds = new ArrayList<Integer>();
+    	
+    	map.getUnits().stream().filter((u) -> u.own).sorted(Comparator.comparingInt((u) -> u.id)).forEach((u) -> {
+    		Position pos = new Position(u.x, u.y);
     		
-    		if(u.getTemplateView().getName().toLowerCase().equals("townhall")) {
+    		if(u.isTownhall()) {
     			GameState.townhallPos = pos;
-    			GameState.townhallId = u.getID();
+    			GameState.townhallId = u.id;
     		}
     		else //name == "peasant"
     		{
-    			bob = new Peasant(u.getID(), pos);
+    			peasantIds.add(u.id);
+    			peasants.put(peasantIds.size(), new Peasant(peasantIds.size(), pos));
     		}
     	});
-    	System.out.println("Peasant Bob with ID: " + bob.getId());
-    }
-    /**
-     * Secondary constructor to ease generating children, effectively a clone function
-     * 
-     * @param state The GameState to copy
-     */
-    public GameState(GameState state) {
-    	this.gold = state.gold;
-    	this.wood = state.wood;
-    	this.bob = new Peasant(state.bob);
-    	this.cost = state.cost;
     	
-    	for(Resource resource : state.resources.values()) {
-    		if(resource.isGold()) this.resources.put(resource.getId(), new Gold(resource));
-    		else this.resources.put(resource.getId(), new Wood(resource));
+    	this.gold = map.getGold();
+    	this.wood = map.getWood();
+    	
+    	GameState.maxPeasants = peasants.size();
+    	
+    	PlanningMap.PeasantTemplate peasantTemplate = map.getPeasantTemplate();
+    	if(buildPeasants && peasantTemplate != null) {
+    		GameState.peasantTemplateId = peasantTemplate.id;
+    		GameState.peasantGoldCost = peasantTemplate.goldCost;
+    		
+    		int food = Math.max(1, peasantTemplate.foodCost);
+    		GameState.maxPeasants += Math.max(0, map.getSupplyCap() - map.getSupplyAmount()) / food;
     	}
     	
-    	state.plan.stream().forEach((p) -> plan.add(p));
-    }
-    
-    private class Gold extends Resource {
-    	Gold(int id, Position pos, int amount) {
-    		this.id = id;
-    		this.pos = pos;
-    		this.amount = amount;
+    	List<Position> targets = new ArrayList<Position>();
+    	targets.add(townhallPos);
+    	targets.addAll(Arrays.asList(resourcePositions));
+    	GameState.distances = new DistanceTable(map, new HashSet<Integer>(peasantIds), targets);
+    	
+    	//peasants only ever stand where they started, at the townhall or at a resource
+    	List<Position> locations = new ArrayList<Position>();
+    	for(Peasant peasant : peasants.values()) locations.add(peasant.getPos());
+    	
+    	GameState.relaxedPlan = new RelaxedPlanHeuristic(locations, townhallPos, resourcePositions, resourceOrder, resourceGold, maxPeasants,
+    			buildPeasants ? peasantGoldCost : 0);
+    	
+    	if(patternDatabase) {
+    		long fingerprint = PlanCache.fingerprint(map, requiredGold, requiredWood, buildPeasants, "pdb");
+    		if(patternsFingerprint == null || patternsFingerprint != fingerprint) {
+    			GameState.patterns = patternDatabase(fingerprint);
+    			GameState.patternsFingerprint = fingerprint;
+    		}
+    	}
+    	else {
+    		GameState.patterns = null;
+    		GameState.patternsFingerprint = null;
     	}
     	
-    	Gold(Resource resource) {
-    		this.id = resource.getId();
-    		this.pos = resource.getPos();
-    		this.amount = resource.getAmount();
+    	System.out.println("Planning with peasants " + peasantIds + ", at most " + maxPeasants + " peasants");
+    }
+
+    private PatternDatabase patternDatabase(long fingerprint) {
+    	Set<Position> mines = new HashSet<Position>();
+    	Set<Position> trees = new HashSet<Position>();
+    	double harvestCost = Double.POSITIVE_INFINITY;
+    	for(int r = 0; r < resourceOrder.length; r++) {
+    		(resourceGold[r] ? mines : trees).add(resourcePositions[r]);
+    		harvestCost = Math.min(harvestCost, new Harvest(0, resourcePositions[r], resourceOrder[r]).getCost());
     	}
     	
-    	@Override
-    	public boolean isGold() { return true; }
+    	Set<Position> elsewhere = new HashSet<Position>();
+    	for(Peasant peasant : peasants.values()) elsewhere.add(peasant.getPos());
     	
-    	@Override
-    	public boolean isWood() { return false; }
+    	return PatternDatabase.forMap(PATTERN_DIR, fingerprint, townhallPos, mines, trees, elsewhere, peasants.size(), maxPeasants,
+    			requiredGold, requiredWood, buildPeasants ? peasantGoldCost : 0, GameState::cheapestMove, harvestCost,
+    			new Deposit(0).getCost(), new BuildPeasant(0).getCost());
     }
     
-    private class Wood extends Resource {
-    	Wood(int id, Position pos, int amount) {
-    		this.id = id;
-    		this.pos = pos;
-    		this.amount = amount;
+    private static double cheapestMove(Set<Position> from, Set<Position> to) {
+    	double cheapest = Double.POSITIVE_INFINITY;
+    	for(Position a : from) {
+    		for(Position b : to) {
+    			if(!a.equals(b)) cheapest = Math.min(cheapest, new Move(0, a, b).getCost());
+    		}
     	}
-    	
-    	Wood(Resource resource) {
-    		this.id = resource.getId();
-    		this.pos = resource.getPos();
-    		this.amount = resource.getAmount();
+    	return cheapest;
+    }
+
+    /**
+     * The state the game is really in, in terms of the current planning problem, so the PEAgent can check a step
+     * against what happened. Nothing about the planning problem is set up again.
+     *
+     * A plan puts a peasant on the townhall or resource it walks to, SEPIA puts it next to it. So a peasant next to
+     * where the plan expects it counts as there, then next to the townhall or a resource. A peasant stuck anywhere
+     * else counts as where the step started, moving on from there works all the same.
+     *
+     * @param state The current stateview
+     * @param playernum The planning player
+     * @param peasantIdMap Plan ids to unit ids
+     * @param before The expected state before the last step
+     * @param after The expected state after it
+     */
+    public GameState(State.StateView state, int playernum, Map<Integer, Integer> peasantIdMap, GameState before, GameState after) {
+
+    	this.gold = state.getResourceAmount(playernum, ResourceType.GOLD);
+    	this.wood = state.getResourceAmount(playernum, ResourceType.WOOD);
+
+    	//SEPIA removes a resource once it runs out
+    	this.amounts = new int[resourceOrder.length];
+    	for(int r = 0; r < resourceOrder.length; r++) {
+    		ResourceNode.ResourceView node = state.getResourceNode(resourceOrder[r]);
+    		amounts[r] = node == null ? 0 : node.getAmountRemaining();
+    	}
+
+    	for(Map.Entry<Integer, Integer> entry : peasantIdMap.entrySet()) {
+    		Unit.UnitView unit = state.getUnit(entry.getValue());
+    		if(unit == null) continue;
+
+    		int id = entry.getKey();
+    		Position pos = new Position(unit.getXPosition(), unit.getYPosition());
+    		Position start = before.hasPeasant(id) ? before.peasantPos(id) : townhallPos;
+
+    		Peasant peasant = new Peasant(id, planPosition(pos, after.hasPeasant(id) ? after.peasantPos(id) : start, start));
+    		if(unit.getCargoAmount() > MAX_CARGO) {
+    			throw new IllegalArgumentException("Peasant " + unit.getID() + " carries " + unit.getCargoAmount() + ", at most " + MAX_CARGO + " fits in a state");
+    		}
+    		if(unit.getCargoAmount() > 0) {
+    			if(unit.getCargoType() == ResourceType.GOLD) peasant.setGold(unit.getCargoAmount());
+    			else peasant.setWood(unit.getCargoAmount());
+    		}
+    		peasants.put(id, peasant);
     	}
-    	
-    	@Override
-    	public boolean isGold() { return false; }
-    	
-    	@Override
-    	public boolean isWood() { return true; }
     }
 
-    private abstract class Resource {
-    	protected int id;
-    	protected Position pos;
-    	
-    	protected int amount;
-    	
-    	public abstract boolean isGold();
-    	public abstract boolean isWood();
-    	
-    	public int getId() { return this.id; }
-    	public Position getPos() { return this.pos; }
+    private Position planPosition(Position pos, Position expected, Position start) {
+    	if(pos.isAdjacent(expected)) return expected;
+    	if(pos.equals(start)) return start;
+    	if(pos.isAdjacent(townhallPos)) return townhallPos;
+
+    	for(Position resource : resourcePositions) {
+    		if(pos.isAdjacent(resource)) return resource;
+    	}
+    	return start;
+    }
+
+    /**
+     * Secondary constructor to ease generating children, effectively a clone function
+     * 
+     * @param state The GameState to copy
+     */
+    public GameState(GameState state) {
+    	this.gold = state.gold;
+    	this.wood = state.wood;
+    	this.cost = state.cost;
     	
-    	public int getAmount() { return this.amount; }
+    	for(Peasant peasant : state.peasants.values()) {
+    		this.peasants.put(peasant.getId(), new Peasant(peasant));
+    	}
     	
-    	public void setId(int id) { this.id = id; }
-    	public void setPos(Position pos) { this.pos = pos; }
+    	//shared until either side harvests, see ownAmounts
+    	this.amounts = state.amounts;
+    	this.ownsAmounts = false;
+    	state.ownsAmounts = false;
     	
-    	public void setAmount(int amount) { this.amount = amount; }
+    	this.parent = state.parent;
+    	this.action = state.action;
+    }
+    
+    /**
+     * Creates the child of a state produced by an action. The action is expected to apply its effects to the result.
+     * 
+     * @param parent The state the action is applied to
+     * @param action The action generating the new state
+     */
+    public GameState(GameState parent, SearchAction action) {
+    	this(parent);
     	
-    	public boolean empty() { return amount <= 0; }
+    	this.parent = parent;
+    	this.action = action;
     }
     
     private class Peasant {
@@ -244,146 +421,237 @@ public class GameState implements Comparable<GameState> {
      * @return A list of the possible successor states and their associated actions
      */
     public List<GameState> generateChildren() {
-        // TODO: Implement me!
     	
     	List<GameState> children = new ArrayList<GameState>();
+    	successors().forEachRemaining(children::add);
     	
-    	GameState child = new GameState(this);
+        return children;
+    }
+    
+    /**
+     * The children of this state one at a time. A child is only built when it is asked for and its heuristic only
+     * when something needs it, so a search can check the child against its closed set before paying for the
+     * heuristic, and stops building children once it has what it needs.
+     * 
+     * @return The successor states, each applicable action once
+     */
+    public Iterator<GameState> successors() {
+    	return new Successors(candidateActions(), null);
+    }
+    
+    /**
+     * The children of this state one at a time, leaving out the ones a search has no use for. A child's key is
+     * worked out from this state and the action (see keyAfter), a child that is left out is never built.
+     * 
+     * @param skip Tests the key of each child, true to leave it out
+     * @return The successor states, each applicable action once unless skipped
+     */
+    public Iterator<GameState> successors(Predicate<long[]> skip) {
+    	return new Successors(candidateActions(), skip);
+    }
+    
+    /**
+     * Every action the peasant groups could take, one per group and target. Preconditions are checked later.
+     */
+    private List<SearchAction> candidateActions() {
     	
-    	//System.out.println("initial state gen can harvest = " + canHarvest());
+    	List<SearchAction> actions = new ArrayList<SearchAction>();
     	
-    	//if bob has stuff attempt to deposit
-    	if(bob.holdingResource()) {
+    	//peasants standing in the same place with the same cargo act together as one group
+    	for(List<Integer> group : peasantGroups()) {
+    		Peasant peasant = peasants.get(group.get(0));
+    		Position pos = peasant.getPos();
     		
-    		if(bob.getPos().equals(townhallPos)) {
-
-    			Deposit action = new Deposit(bob.getPos(), bob.holdingResource());
-    			
-    			if(action.preconditionsMet(child)) {
-    				child = new GameState(action.apply(child));
-    				child.update(child, action);
-    			}
+    		//if the group has stuff attempt to deposit
+    		if(peasant.holdingResource()) {
+    			if(pos.equals(townhallPos)) actions.add(group.size() == 1 ? new Deposit(group.get(0)) : new DepositK(group));
+    			else actions.add(group.size() == 1 ? new Move(group.get(0), pos, townhallPos) : new MoveK(group, pos, townhallPos));
+    			continue;
     		}
-    		else {
-    			
-    			Move action = new Move(bob.getPos(), townhallPos);
-    			
-    			if(action.preconditionsMet(child)) {
-    				child = new GameState(action.apply(child));
-    				child.update(child, action);
-    			}
-    		}
-    	}
-    	//if bob dont have stuff attempt to harvest
-    	//by checking if bob can harvest
-    	else if(canHarvest()) {
-
-    		for(Resource resource : this.resources.values()) {
-
-    			Harvest action = new Harvest(bob.getPos(), resource.getPos(), resource.getId(), bob.holdingResource(), resource.empty());
+    		
+    		//if the group dont have stuff attempt to harvest
+    		int here = resourceAt(pos);
+    		if(here >= 0 && amounts[here] > 0) {
+    			//only as many peasants as there are loads left can gather, the rest of the group splits off
+    			List<Integer> gatherers = new ArrayList<Integer>(group.subList(0, Math.min(group.size(), (amounts[here] + 99) / 100)));
     			
-    			if(action.preconditionsMet(child)) {
-    				child = new GameState(action.apply(child));
-    				child.update(child, action);
-    			}
+    			actions.add(gatherers.size() == 1 ? new Harvest(gatherers.get(0), pos, resourceOrder[here]) : new HarvestK(gatherers, pos, resourceOrder[here]));
+    			continue;
     		}
-    	}
-    	//move around
-    	else {
     		
-    		for(Resource resource : this.resources.values()) {
-    			if(resource.empty()) continue;
+    		//move around, or with macro actions go all the way there and back
+    		for(int r = 0; r < resourceOrder.length; r++) {
+    			if(amounts[r] <= 0 || resourcePositions[r].equals(pos)) continue;
     			
-    			GameState grandChild = new GameState(child);
-    			
-    			Move action = new Move(bob.getPos(), resource.getPos());
-    			
-    			if(action.preconditionsMet(grandChild)) {
-    				grandChild = new GameState(action.apply(grandChild));
-    				grandChild.update(grandChild, action);
+    			Position target = resourcePositions[r];
+    			if(macroActions) {
+    				List<Integer> gatherers = new ArrayList<Integer>(group.subList(0, Math.min(group.size(), (amounts[r] + 99) / 100)));
+    				actions.add(new Trip(gatherers, pos, target, resourceOrder[r]));
     			}
-    			
-    			children.add(grandChild);
+    			else actions.add(group.size() == 1 ? new Move(group.get(0), pos, target) : new MoveK(group, pos, target));
     		}
     	}
     	
-    	children.add(child);
+    	if(buildPeasants) actions.add(new BuildPeasant(peasants.size() + 1));
     	
-    	GameState grandChild = new GameState(this);
+    	return actions;
+    }
+    
+    private class Successors implements Iterator<GameState> {
+    	private final Iterator<SearchAction> actions;
+    	private final Predicate<long[]> skip;
     	
-    	Deposit depAction = new Deposit(bob.getPos(), bob.holdingResource());
+    	private GameState next = null;
+    	//the last trip, it may still get a build chained on
+    	private GameState trip = null;
     	
-    	if(depAction.preconditionsMet(grandChild)) {
-    		grandChild = depAction.apply(grandChild);
-    		grandChild.update(grandChild, depAction);
+    	Successors(List<SearchAction> actions, Predicate<long[]> skip) {
+    		this.actions = actions.iterator();
+    		this.skip = skip;
     	}
     	
-    	for(Resource resource : this.resources.values()) {
-    		GameState grandGrandChild = new GameState(grandChild);
-    		
-    		StripsAction action = null;
-    		
-    		if(canHarvest()) {
-    			action = new Harvest(bob.getPos(), resource.getPos(), resource.getId(), bob.holdingResource(), resource.empty());
-    		}
-    		else
-    		{
-    			action = new Move(bob.getPos(), resource.getPos());
+    	@Override
+    	public boolean hasNext() {
+    		while(next == null) {
+    			
+    			//a trip that pays for a peasant also comes with the build chained on. A build alone barely lowers the
+    			//heuristic, which already counts the peasants that can be bought, so a weighted search would keep
+    			//picking another trip over it
+    			if(trip != null) {
+    				BuildPeasant build = new BuildPeasant(trip.peasants.size() + 1);
+    				if(build.preconditionsMet(trip)) next = child(trip, build);
+    				trip = null;
+    				continue;
+    			}
+    			
+    			if(!actions.hasNext()) return false;
+    			
+    			SearchAction action = actions.next();
+    			if(!action.preconditionsMet(GameState.this)) continue;
+    			
+    			next = child(GameState.this, action);
+    			if(action instanceof Trip) trip = next;
     		}
-    		
-    		if(action.preconditionsMet(grandGrandChild)) {
-    			grandGrandChild = new GameState(action.apply(grandGrandChild));
-    			grandGrandChild.update(grandGrandChild, action);
+    		return true;
+    	}
+    	
+    	/**
+    	 * @return The child the action leads to, null if it is skipped
+    	 */
+    	private GameState child(GameState from, SearchAction action) {
+    		long[] childKey = null;
+    		if(skip != null) {
+    			childKey = from.keyAfter(action);
+    			if(skip.test(childKey)) return null;
     		}
     		
-    		children.add(new GameState(grandGrandChild));
+    		GameState child = action.apply(from);
+    		update(child, action);
+    		if(childKey != null) child.key = childKey;
+    		return child;
     	}
     	
-    	Move movAction = new Move(bob.getPos(), townhallPos);
-    	
-    	if(movAction.preconditionsMet(grandChild)) {
-    		grandChild = movAction.apply(grandChild);
-    		grandChild.update(grandChild, movAction);
+    	@Override
+    	public GameState next() {
+    		if(!hasNext()) throw new NoSuchElementException();
+    		
+    		GameState child = next;
+    		next = null;
+    		return child;
     	}
+    }
+    
+    /**
+     * Groups the peasants that are interchangeable right now, same position and same cargo.
+     * 
+     * @return Lists of peasant plan ids, each list in increasing id order
+     */
+    private Collection<List<Integer>> peasantGroups() {
+    	Map<Long, List<Integer>> groups = new LinkedHashMap<Long, List<Integer>>();
     	
-        return children;
+    	for(Peasant peasant : peasants.values()) {
+    		groups.computeIfAbsent(peasantWord(peasant), (k) -> new ArrayList<Integer>()).add(peasant.getId());
+    	}
+    	return groups.values();
     }
     
-    private boolean canHarvest() {
-    	for(Resource resource : this.resources.values()) {
-    		if(resource.getPos().equals(bob.getPos())) {
-    			return !resource.empty();
-    		}
+    /**
+     * @return Index of the resource at a position in resourceOrder, -1 if there is none
+     */
+    private int resourceAt(Position pos) {
+    	for(int r = 0; r < resourcePositions.length; r++) {
+    		if(resourcePositions[r].equals(pos)) return r;
     	}
-    	return false;
-    	//return !this.resources.values().stream().filter((r) -> r.getPos().equals(bob.getPos())).findFirst().get().empty();
+    	return -1;
     }
 
     /**
-     * Heuristic is a linear sum of quantities that need to be fulfilled
-     * As a result, the heuristic is greater for a less favorable state and lesser for a favorable state
+     * Delete relaxation estimate of the cost left, see RelaxedPlanHeuristic, or the PatternDatabase cost when that is
+     * higher. Cached in the state once computed, and the engine caches it again for every state with the same peasant
+     * groups and loads left.
      *
      * @return The value estimated remaining cost to reach a goal state from this state.
      */
     public double heuristic() {
 
-    	if(this.heuristic != 0) return heuristic;
+    	if(this.heuristic >= 0) return heuristic;
     	
-    	if(gold <= requiredGold) heuristic += (requiredGold - gold);
-    	else heuristic += (gold - requiredGold);
+    	long startTime = System.nanoTime();
     	
-    	if(wood <= requiredWood) heuristic += (requiredWood - wood);
-    	else heuristic += (wood - requiredWood);
+    	if(linearHeuristic) {
+    		heuristic = linearEstimate();
+    		metrics.heuristic(System.nanoTime() - startTime);
+    		return heuristic;
+    	}
     	
-    	if(bob.holdingResource()) heuristic -= bob.getGold() + bob.getWood();
-    	else {
-    		if(canHarvest()) heuristic -= 50;
-    		else heuristic += 100;
+    	Collection<List<Integer>> groups = peasantGroups();
+    	int[] groupLocation = new int[groups.size()];
+    	int[] groupCargo = new int[groups.size()];
+    	int[] groupSize = new int[groups.size()];
+    	
+    	int g = 0;
+    	for(List<Integer> group : groups) {
+    		Peasant peasant = peasants.get(group.get(0));
+    		groupLocation[g] = relaxedPlan.location(peasant.getPos());
+    		groupCargo[g] = peasant.getGold() > 0 ? 1 : peasant.getWood() > 0 ? 2 : 0;
+    		groupSize[g] = group.size();
+    		g++;
+    	}
+    	
+    	int[] resourceLoads = new int[resourceOrder.length];
+    	for(int r = 0; r < resourceOrder.length; r++) resourceLoads[r] = (amounts[r] + 99) / 100;
+    	
+    	heuristic = relaxedPlan.estimate(groupLocation, groupCargo, groupSize, requiredGold - gold, requiredWood - wood, resourceLoads);
+    	
+    	//both never overestimate, so the larger one is the better guess
+    	if(patterns != null) {
+    		int[] classCounts = new int[PatternDatabase.CLASSES];
+    		for(Peasant peasant : peasants.values()) classCounts[patterns.peasantClass(peasant.getPos(), peasant.getGold(), peasant.getWood())]++;
+    		heuristic = Math.max(heuristic, patterns.estimate(classCounts, requiredGold - gold, requiredWood - wood));
     	}
+    	metrics.heuristic(System.nanoTime() - startTime);
     	
         return heuristic;
     }
 
+    /**
+     * Gold and wood still missing, less what the peasants carry, with a bonus for standing at a resource and a penalty
+     * for standing anywhere else empty handed. Shared out over the peasants, who gather side by side.
+     */
+    private double linearEstimate() {
+    	double estimate = Math.abs(requiredGold - gold) + Math.abs(requiredWood - wood);
+    	
+    	for(Peasant peasant : peasants.values()) {
+    		if(peasant.holdingResource()) estimate -= peasant.getGold() + peasant.getWood();
+    		else {
+    			int here = resourceAt(peasant.getPos());
+    			if(here >= 0 && amounts[here] > 0) estimate -= 50;
+    			else estimate += 100;
+    		}
+    	}
+    	return Math.max(0, estimate / peasants.size());
+    }
+
     /**
      * @return The current cost to reach this goal
      */
@@ -391,72 +659,133 @@ public class GameState implements Comparable<GameState> {
         return this.cost;
     }
     
-    public void update(GameState state, StripsAction action) {
-    	state.plan.add(action);
-    	state.heuristic = state.heuristic();
+    /**
+     * Adds the cost of the action that produced a state. The heuristic is left for heuristic() to work out when it
+     * is first needed.
+     */
+    public void update(GameState state, SearchAction action) {
     	state.cost += action.getCost();
     }
     
+    /**
+     * Rebuilds the plan by walking the parent pointers back to the initial state. Only called once at the goal.
+     * 
+     * Trips are split back into their steps, so the plan only holds actions the PEAgent can carry out.
+     * 
+     * @return The actions leading to this state, with the first action on top
+     */
     public Stack<StripsAction> getPlan() {
     	
     	Stack<StripsAction> plan = new Stack<StripsAction>();
     	
-    	for(int i = this.plan.size() - 1; i > -1; i--) {
-    		plan.push(this.plan.get(i));
+    	for(GameState node = this; node != null; node = node.parent) {
+    		if(node.action == null) continue;
+    		
+    		List<StripsAction> steps = node.action.getSteps();
+    		for(int i = steps.size() - 1; i >= 0; i--) plan.push(steps.get(i));
     	}
     	
     	return plan;
     }
     
-    public void move(Position pos) {
-    	bob.setPos(pos);
+    @Override
+    public void move(int peasantId, Position pos) {
+    	this.key = null;
+    	peasants.get(peasantId).setPos(pos);
     }
     
-    public void harvest(int id) {
-    	Resource resource = this.resources.get(id);
-    	if(resource.isGold()) {
-    		bob.setGold(Math.min(100, resource.getAmount()));
-    		resource.setAmount(Math.max(0, resource.getAmount() - 100));
+    @Override
+    public void harvest(int peasantId, int id) {
+    	this.key = null;
+    	Peasant peasant = peasants.get(peasantId);
+    	int r = Arrays.binarySearch(resourceOrder, id);
+    	ownAmounts();
+    	if(resourceGold[r]) {
+    		peasant.setGold(Math.min(100, amounts[r]));
     	}
     	else //harvest wood
     	{
-    		bob.setWood(Math.min(100, resource.getAmount()));
-    		resource.setAmount(Math.max(0, resource.getAmount() - 100));
+    		peasant.setWood(Math.min(100, amounts[r]));
     	}
-
+    	amounts[r] = Math.max(0, amounts[r] - 100);
     }
     
-    public void deposit() {
-    	if(this.bob.hasGold()) {
-    		this.gold += this.bob.getGold();
-    		this.bob.setGold(0);
+    /**
+     * Copies the amounts before the first change, if they are shared with another state
+     */
+    private void ownAmounts() {
+    	if(ownsAmounts) return;
+    	amounts = amounts.clone();
+    	ownsAmounts = true;
+    }
+    
+    @Override
+    public void deposit(int peasantId) {
+    	this.key = null;
+    	Peasant peasant = peasants.get(peasantId);
+    	if(peasant.hasGold()) {
+    		this.gold += peasant.getGold();
+    		peasant.setGold(0);
     	}
     	else //deposit wood
     	{
-    		this.wood += this.bob.getWood();
-    		this.bob.setWood(0);
+    		this.wood += peasant.getWood();
+    		peasant.setWood(0);
     	}
     }
     
-    public Position bobPos() {
-    	return bob.getPos();
+    /**
+     * Spends the gold for a new peasant, which shows up empty handed at the townhall with the next plan id
+     */
+    @Override
+    public void buildPeasant() {
+    	this.key = null;
+    	this.gold -= peasantGoldCost;
+    	
+    	int id = peasants.size() + 1;
+    	peasants.put(id, new Peasant(id, townhallPos));
+    }
+    
+    public boolean canBuildPeasant() {
+    	return buildPeasants && gold >= peasantGoldCost && peasants.size() < maxPeasants;
+    }
+    
+    public boolean hasPeasant(int peasantId) {
+    	return peasants.containsKey(peasantId);
+    }
+    
+    public Position peasantPos(int peasantId) {
+    	return peasants.get(peasantId).getPos();
+    }
+    
+    public boolean peasantHolding(int peasantId) {
+    	return peasants.get(peasantId).holdingResource();
     }
     
-    public Peasant getBob() {
-    	return bob;
+    public int peasantCount() {
+    	return peasants.size();
+    }
+    
+    /**
+     * @param id Resource id
+     * @return The amount left in the resource, 0 if there is no such resource
+     */
+    public int resourceAmount(int id) {
+    	int r = Arrays.binarySearch(resourceOrder, id);
+    	return r < 0 ? 0 : amounts[r];
     }
 
     /**
-     * Compares based on GameState heuristic
+     * Compares based on cost + heuristic, ties go to the state with the lower heuristic (the one closer to a goal)
      *
      * @param o The other game state to compare
      * @return 1 if this state costs more than the other, 0 if equal, -1 otherwise
      */
     @Override
     public int compareTo(GameState o) {
-        if(this.heuristic() > o.heuristic()) return 1;
-        else if(this.heuristic() < o.heuristic()) return -1;
-        return 0;
+        int f = Double.compare(this.cost + this.heuristic(), o.cost + o.heuristic());
+        if(f != 0) return f;
+        return Double.compare(this.heuristic(), o.heuristic());
     }
 
     /**
@@ -471,13 +800,7 @@ public class GameState implements Comparable<GameState> {
         if(this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         
-        GameState state = (GameState) o;
-        
-        if(gold != state.gold) return false;
-        if(wood != state.wood) return false;
-        if(this.bob.getPos() != state.getBob().getPos()) return false;
-        
-        return true;
+        return Arrays.equals(key(), ((GameState) o).key());
     }
 
     /**
@@ -487,16 +810,156 @@ public class GameState implements Comparable<GameState> {
      */
     @Override
     public int hashCode() {
-    	final int prime = 31;
-    	int hash = 1;
-
-    	hash = prime * hash + gold;
-    	hash = prime * hash + wood;
-    	hash = prime * hash + bob.getGold();
-    	hash = prime * hash + bob.getWood();
-    	hash = prime * hash + bob.getPos().hashCode();
-    	//hash = prime * hash + plan.size();
-    	
-        return hash;
+        return StateKeySet.hash(key());
+    }
+    
+    /**
+     * Packs the state into a few longs. The first word holds the deposited gold and wood, 32 bits each. The next
+     * maxPeasants words hold one peasant each (see peasantWord), sorted so that states which only differ in which
+     * peasant is which pack the same. Every word after that holds the remaining amounts of two resources, 32 bits
+     * each, in resourceOrder.
+     * 
+     * The plan and the costs are not part of the key, two states are the same if the game looks the same.
+     *
+     * @return The packed state, keyWidth() longs long. Do not modify.
+     */
+    public long[] key() {
+    	if(key != null) return key;
+    	
+    	long[] packed = pack(gold, wood, amounts);
+    	
+    	int i = 1;
+    	for(Peasant peasant : peasants.values()) {
+    		packed[i++] = peasantWord(peasant);
+    	}
+    	Arrays.sort(packed, 1, i);
+    	
+    	return key = packed;
+    }
+    
+    /**
+     * @return A key with everything but the peasants filled in
+     */
+    private static long[] pack(int gold, int wood, int[] amounts) {
+    	long[] packed = new long[keyWidth()];
+    	
+    	packed[0] = (gold & 0xFFFFFFFFL) | (wood & 0xFFFFFFFFL) << 32;
+    	
+    	int base = 1 + maxPeasants;
+    	for(int r = 0; r < resourceOrder.length; r++) {
+    		long amount = amounts[r] & 0xFFFFFFFFL;
+    		packed[base + r / 2] |= amount << (32 * (r % 2));
+    	}
+    	
+    	return packed;
+    }
+    
+    private static long peasantWord(Peasant peasant) {
+    	return peasantWord(peasant.getPos(), peasant.getGold(), peasant.getWood());
+    }
+    
+    /**
+     * 16 bits each for x and y, 15 each for carried gold and carried wood, plus a bit so a peasant never packs to 0 like
+     * an empty slot. The constructors turn away maps and cargo that don't fit, see MAX_MAP_SIDE and MAX_CARGO.
+     */
+    private static long peasantWord(Position pos, int gold, int wood) {
+    	return (pos.x & 0xFFFFL)
+    			| (pos.y & 0xFFFFL) << 16
+    			| (gold & 0x7FFFL) << 32
+    			| (wood & 0x7FFFL) << 47
+    			| 1L << 62;
+    }
+    
+    /**
+     * Works out the key of the child an action leads to without building the child, so a search can drop a child it
+     * has seen before for the price of the key.
+     * 
+     * @param action An action whose preconditions hold in this state
+     * @return The key action.apply(this) would have
+     */
+    public long[] keyAfter(SearchAction action) {
+    	KeyChanges changes = new KeyChanges();
+    	action.changes(changes);
+    	return changes.key();
+    }
+    
+    /**
+     * The parts of the state that go into the key, the peasants by plan id. Makes the same changes as GameState.
+     */
+    private class KeyChanges implements StateChanges {
+    	private int gold = GameState.this.gold;
+    	private int wood = GameState.this.wood;
+    	//copied before the first harvest, like the state's own
+    	private int[] amounts = GameState.this.amounts;
+    	private boolean ownsAmounts = false;
+    	
+    	//index plan id - 1, one spare for a peasant that is built
+    	private int count = peasants.size();
+    	private final Position[] pos = new Position[count + 1];
+    	private final int[] carriedGold = new int[count + 1];
+    	private final int[] carriedWood = new int[count + 1];
+    	
+    	KeyChanges() {
+    		for(Peasant peasant : peasants.values()) {
+    			int i = peasant.getId() - 1;
+    			pos[i] = peasant.getPos();
+    			carriedGold[i] = peasant.getGold();
+    			carriedWood[i] = peasant.getWood();
+    		}
+    	}
+    	
+    	@Override
+    	public void move(int peasantId, Position pos) {
+    		this.pos[peasantId - 1] = pos;
+    	}
+    	
+    	@Override
+    	public void harvest(int peasantId, int id) {
+    		int r = Arrays.binarySearch(resourceOrder, id);
+    		if(!ownsAmounts) {
+    			amounts = amounts.clone();
+    			ownsAmounts = true;
+    		}
+    		if(resourceGold[r]) carriedGold[peasantId - 1] = Math.min(100, amounts[r]);
+    		else carriedWood[peasantId - 1] = Math.min(100, amounts[r]);
+    		amounts[r] = Math.max(0, amounts[r] - 100);
+    	}
+    	
+    	@Override
+    	public void deposit(int peasantId) {
+    		int i = peasantId - 1;
+    		if(carriedGold[i] > 0) {
+    			gold += carriedGold[i];
+    			carriedGold[i] = 0;
+    		}
+    		else {
+    			wood += carriedWood[i];
+    			carriedWood[i] = 0;
+    		}
+    	}
+    	
+    	@Override
+    	public void buildPeasant() {
+    		gold -= peasantGoldCost;
+    		pos[count++] = townhallPos;
+    	}
+    	
+    	long[] key() {
+    		long[] packed = pack(gold, wood, amounts);
+    		
+    		for(int i = 0; i < count; i++) {
+    			packed[i + 1] = peasantWord(pos[i], carriedGold[i], carriedWood[i]);
+    		}
+    		Arrays.sort(packed, 1, count + 1);
+    		
+    		return packed;
+    	}
+    }
+    
+    /**
+     * @return The number of longs in every key of the current planning problem
+     */
+    public static int keyWidth() {
+    	return 1 + maxPeasants + (resourceOrder.length + 1) / 2;
     }
 }
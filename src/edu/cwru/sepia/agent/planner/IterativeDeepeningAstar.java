@@ -0,0 +1,170 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * Iterative deepening A* (IDA*) for goals too big for the open and closed lists of AstarSearch.
+ *
+ * Every iteration is a depth first search that cuts off states with cost + weight * heuristic over a threshold. The
+ * next iteration raises the threshold to the lowest value that was cut off. Only the current path and the children of
+ * the states on it are kept, so memory grows with the plan length instead of the number of expanded states.
+ *
+ * Without a closed set IDA* expands a state again every time another order of the same actions reaches it. A bounded
+ * transposition cache keeps the lowest cost each state was reached with in the current iteration, a state reached
+ * again for no less is skipped. When the cache is full the least recently used state is dropped, which costs some
+ * expansions but never the plan.
+ */
+public class IterativeDeepeningAstar {
+
+	private final double weight;
+	private final int cacheSize;
+
+	// lowest cost each recently seen state was reached with in this iteration, by packed key
+	private Map<Key, Double> transpositions;
+
+	// states on the current path, a path that comes back to one of them is a loop
+	private final Set<Key> onPath = new HashSet<Key>();
+
+	private final Comparator<GameState> byWeighted;
+
+	private double threshold;
+	private double nextThreshold;
+	private int depth = 0;
+
+	private SearchMetrics metrics;
+
+	/**
+	 * @param weight Heuristic weight, 1 for optimal plans with the admissible relaxed plan heuristic
+	 * @param cacheSize Number of states the transposition cache holds, 0 for none
+	 */
+	public IterativeDeepeningAstar(double weight, int cacheSize) {
+		this.weight = Math.max(1, weight);
+		this.cacheSize = cacheSize;
+		this.byWeighted = Comparator.<GameState>comparingDouble(this::weighted).thenComparingDouble(GameState::heuristic);
+	}
+
+	/**
+	 * @param startState The state which is being planned from
+	 * @return The plan or null if no plan is found.
+	 */
+	public Stack<StripsAction> search(GameState startState) {
+		metrics = GameState.metrics;
+		long startTime = System.nanoTime();
+		GameState goal = null;
+
+		threshold = weighted(startState);
+		int iteration = 0;
+
+		while(goal == null && threshold < Double.POSITIVE_INFINITY) {
+			iteration++;
+			nextThreshold = Double.POSITIVE_INFINITY;
+			transpositions = newCache();
+
+			goal = deepen(startState);
+
+			System.out.printf("IDA* iteration %d: threshold %.1f, %d expanded so far%n", iteration, threshold, metrics.getExpanded());
+			threshold = nextThreshold;
+		}
+
+		long expanded = metrics.getExpanded();
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		System.out.printf("IDA* expanded %d nodes in %.3f s (%.0f expansions/s)%n", expanded, seconds, seconds > 0 ? expanded / seconds : 0.0);
+
+		return goal == null ? null : goal.getPlan();
+	}
+
+	/**
+	 * Depth first search below a state, cheapest looking children first.
+	 *
+	 * @return A goal state under the threshold, or null if there is none below this state
+	 */
+	private GameState deepen(GameState state) {
+		double f = weighted(state);
+		if(f > threshold) {
+			nextThreshold = Math.min(nextThreshold, f);
+			return null;
+		}
+		if(state.isGoal()) return state;
+
+		Key key = new Key(state.key());
+		if(transpositions != null) {
+			Double seen = transpositions.get(key);
+			if(seen != null && seen <= state.getCost()) {
+				metrics.duplicate();
+				return null;
+			}
+			transpositions.put(key, state.getCost());
+		}
+
+		onPath.add(key);
+		depth++;
+		metrics.expanded();
+
+		List<GameState> children = state.generateChildren();
+		metrics.generated(children.size());
+		metrics.listSizes(depth, transpositions == null ? 0 : transpositions.size());
+		children.sort(byWeighted);
+
+		GameState goal = null;
+		for(GameState child : children) {
+			if(onPath.contains(new Key(child.key()))) {
+				metrics.duplicate();
+				continue;
+			}
+			goal = deepen(child);
+			if(goal != null) break;
+		}
+
+		depth--;
+		onPath.remove(key);
+		return goal;
+	}
+
+	private Map<Key, Double> newCache() {
+		if(cacheSize <= 0) return null;
+
+		return new LinkedHashMap<Key, Double>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	private double weighted(GameState state) {
+		return state.getCost() + weight * state.heuristic();
+	}
+
+	/**
+	 * A packed GameState key as a map key. The cache holds these instead of the states, a state holds on to its
+	 * whole path through the parent pointers.
+	 */
+	private static final class Key {
+		private final long[] words;
+		private final int hash;
+
+		Key(long[] words) {
+			this.words = words;
+			this.hash = StateKeySet.hash(words);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(words, ((Key) o).words);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.TreeSet;
+
+/**
+ * Simplified memory-bounded A* (SMA*). Searches like A* but holds a fixed number of nodes, so several planners can share
+ * a heap. The limit is only passed while an expansion is in progress, by at most one state's children.
+ *
+ * The nodes in memory form a tree rooted at the start state. When expanding a node goes over the limit the worst leaf
+ * (highest f, shallowest first) is dropped and its f is remembered by its parent. A parent that has forgotten
+ * children goes back on the open list at the lowest forgotten f and regenerates them when it comes up again. Every
+ * node's f is also backed up to the lowest f below it, so the search knows how good a subtree was after parts of it
+ * are gone.
+ *
+ * f is cost + weight * heuristic. With weight 1 the plan is optimal whenever the optimal plan is at most limit - 1
+ * actions long, longer paths cannot be held and are treated as dead ends.
+ */
+public class MemoryBoundedAstar {
+
+	private final double weight;
+	private final int limit;
+
+	private final class Node {
+		final GameState state;
+		final Node parent;
+		final int depth;
+		final long order;
+
+		double f;
+		boolean expanded = false;
+		final List<Node> children = new ArrayList<Node>();
+		// lowest f of the dropped children, infinite if none were dropped
+		double forgotten = Double.POSITIVE_INFINITY;
+
+		Node(GameState state, Node parent, double f) {
+			this.state = state;
+			this.parent = parent;
+			this.depth = parent == null ? 0 : parent.depth + 1;
+			this.order = created++;
+			this.f = f;
+		}
+
+		// what the node is waiting on the open list for, its own f or the best child it has to regenerate
+		double priority() {
+			return expanded ? forgotten : f;
+		}
+	}
+
+	private long created = 0;
+
+	// leaves, and parents with forgotten children, best first and worst last
+	private final TreeSet<Node> open = new TreeSet<Node>(Comparator.<Node>comparingDouble(Node::priority)
+			.thenComparing(Comparator.<Node>comparingInt(n -> n.depth).reversed())
+			.thenComparingLong(n -> n.order));
+
+	// the cheapest node in memory for every state
+	private final Map<GameState, Node> inMemory = new HashMap<GameState, Node>();
+
+	private int nodes = 0;
+	private int peakNodes = 0;
+
+	private SearchMetrics metrics;
+
+	/**
+	 * @param weight Heuristic weight, 1 for optimal plans with the admissible relaxed plan heuristic
+	 * @param limit Most nodes held at once
+	 */
+	public MemoryBoundedAstar(double weight, int limit) {
+		this.weight = Math.max(1, weight);
+		this.limit = Math.max(2, limit);
+	}
+
+	/**
+	 * @param startState The state which is being planned from
+	 * @return The plan or null if no plan fits in the node limit.
+	 */
+	public Stack<StripsAction> search(GameState startState) {
+		metrics = GameState.metrics;
+		long startTime = System.nanoTime();
+
+		Node root = new Node(startState, null, weighted(startState));
+		inMemory.put(startState, root);
+		open.add(root);
+		nodes = peakNodes = 1;
+
+		Node goal = null;
+		while(!open.isEmpty()) {
+			Node best = open.first();
+			if(best.priority() == Double.POSITIVE_INFINITY) break;
+
+			if(!best.expanded && best.state.isGoal()) {
+				goal = best;
+				break;
+			}
+
+			expand(best);
+			while(nodes > limit) dropWorstLeaf();
+
+			metrics.listSizes(open.size(), nodes - open.size());
+		}
+
+		long expanded = metrics.getExpanded();
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		System.out.printf("SMA* expanded %d nodes in %.3f s (%.0f expansions/s), peak %d of %d nodes in memory%n",
+				expanded, seconds, seconds > 0 ? expanded / seconds : 0.0, peakNodes, limit);
+
+		return goal == null ? null : goal.state.getPlan();
+	}
+
+	/**
+	 * Adds the children of a node that are not in memory yet. For a parent with forgotten children that regenerates
+	 * the forgotten ones.
+	 */
+	private void expand(Node node) {
+		open.remove(node);
+		metrics.expanded();
+
+		List<GameState> children = node.state.generateChildren();
+		metrics.generated(children.size());
+
+		for(GameState child : children) {
+			Node known = inMemory.get(child);
+			if(known != null && known.state.getCost() <= child.getCost()) {
+				if(known.parent != node) metrics.duplicate();
+				continue;
+			}
+
+			//a path that cannot be extended inside the limit is no use unless it already ends at the goal. A goal is
+			//worth its exact cost, the parent's f only bounds it from below when the weight is 1
+			double f;
+			if(child.isGoal()) f = child.getCost();
+			else if(node.depth + 2 >= limit) f = Double.POSITIVE_INFINITY;
+			else f = Math.max(node.f, weighted(child));
+
+			Node added = new Node(child, node, f);
+			node.children.add(added);
+			inMemory.put(child, added);
+			open.add(added);
+			nodes++;
+		}
+		peakNodes = Math.max(peakNodes, nodes);
+
+		node.expanded = true;
+		node.forgotten = Double.POSITIVE_INFINITY;
+		if(node.children.isEmpty()) {
+			//nothing new below it, a dead end. It goes back on the open list as a leaf so it is the first to be dropped
+			node.expanded = false;
+			node.f = Double.POSITIVE_INFINITY;
+			open.add(node);
+			backUp(node.parent);
+		}
+		else backUp(node);
+	}
+
+	/**
+	 * Drops the worst leaf and hands its f to its parent.
+	 */
+	private void dropWorstLeaf() {
+		Iterator<Node> worst = open.descendingIterator();
+		while(worst.hasNext()) {
+			Node leaf = worst.next();
+			if(!leaf.children.isEmpty() || leaf.parent == null) continue;
+
+			worst.remove();
+			if(inMemory.get(leaf.state) == leaf) inMemory.remove(leaf.state);
+			nodes--;
+
+			Node parent = leaf.parent;
+			open.remove(parent);
+			parent.children.remove(leaf);
+			parent.forgotten = Math.min(parent.forgotten, leaf.f);
+			if(parent.children.isEmpty()) {
+				//back to a plain leaf, its f already holds the best of what it forgot
+				parent.expanded = false;
+				parent.forgotten = Double.POSITIVE_INFINITY;
+			}
+			open.add(parent);
+			return;
+		}
+		throw new IllegalStateException("SMA* node limit " + limit + " is too small to hold one expansion");
+	}
+
+	/**
+	 * Sets the f of a node to the lowest f below it, and of its ancestors while that changes anything.
+	 */
+	private void backUp(Node node) {
+		while(node != null && node.expanded) {
+			double lowest = node.forgotten;
+			for(Node child : node.children) lowest = Math.min(lowest, child.f);
+			if(lowest == node.f) return;
+
+			node.f = lowest;
+			node = node.parent;
+		}
+	}
+
+	private double weighted(GameState state) {
+		return state.getCost() + weight * state.heuristic();
+	}
+
+	/**
+	 * @return Most nodes that were in memory at once during the last search
+	 */
+	public int getPeakNodes() {
+		return peakNodes;
+	}
+}
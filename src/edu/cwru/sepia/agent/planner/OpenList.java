@@ -0,0 +1,158 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexed binary heap used as the A* open list.
+ *
+ * The old open list was a PriorityQueue paired with a HashSet, which meant finding an open state meant scanning the
+ * whole set and PriorityQueue.remove() was linear as well. Here every state in the heap also lives in a map from
+ * the state to its slot in the heap array, so lookup is O(1) and replacing a state with a cheaper copy of itself is a
+ * single O(log n) sift.
+ *
+ * States are keyed by GameState equals/hashCode, so two equal states can never be in the heap at the same time.
+ */
+public class OpenList {
+
+	private GameState[] heap = new GameState[64];
+	private int size = 0;
+
+	private final Map<GameState, Integer> index = new HashMap<GameState, Integer>();
+	private final Comparator<GameState> order;
+
+	public OpenList() {
+		this(Comparator.naturalOrder());
+	}
+
+	public OpenList(Comparator<GameState> order) {
+		this.order = order;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(GameState state) {
+		return index.containsKey(state);
+	}
+
+	/**
+	 * @param state State to look for
+	 * @return The open state equal to the given one, or null if there is none
+	 */
+	public GameState get(GameState state) {
+		Integer i = index.get(state);
+		return i == null ? null : heap[i];
+	}
+
+	/**
+	 * Adds a state that is not already open. Use replace() to update an open state.
+	 *
+	 * @param state State to add
+	 */
+	public void add(GameState state) {
+		if(size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+
+		heap[size] = state;
+		index.put(state, size);
+		siftUp(size++);
+	}
+
+	/**
+	 * @return The best state in the heap without removing it, or null if the heap is empty
+	 */
+	public GameState peek() {
+		return size == 0 ? null : heap[0];
+	}
+
+	/**
+	 * @return Every open state, in no particular order
+	 */
+	public List<GameState> states() {
+		return new ArrayList<GameState>(Arrays.asList(heap).subList(0, size));
+	}
+
+	/**
+	 * Removes and returns the best state in the heap
+	 *
+	 * @return The best state, or null if the heap is empty
+	 */
+	public GameState poll() {
+		if(size == 0) return null;
+
+		GameState first = heap[0];
+		index.remove(first);
+
+		GameState last = heap[--size];
+		heap[size] = null;
+
+		if(size > 0) {
+			heap[0] = last;
+			index.put(last, 0);
+			siftDown(0);
+		}
+		return first;
+	}
+
+	/**
+	 * Swaps an open state for an equal state (usually the same state reached with a lower cost) and restores the
+	 * heap order. This is the decrease-key of the heap, although it also handles the key going up.
+	 *
+	 * @param state State that replaces its equal in the heap
+	 * @return True if an equal state was open and got replaced
+	 */
+	public boolean replace(GameState state) {
+		Integer i = index.remove(state);
+		if(i == null) return false;
+
+		heap[i] = state;
+		index.put(state, i);
+
+		siftUp(i);
+		siftDown(index.get(state));
+		return true;
+	}
+
+	private void siftUp(int i) {
+		GameState state = heap[i];
+
+		while(i > 0) {
+			int parent = (i - 1) >>> 1;
+			if(order.compare(state, heap[parent]) >= 0) break;
+
+			heap[i] = heap[parent];
+			index.put(heap[i], i);
+			i = parent;
+		}
+		heap[i] = state;
+		index.put(state, i);
+	}
+
+	private void siftDown(int i) {
+		GameState state = heap[i];
+		int half = size >>> 1;
+
+		while(i < half) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+
+			if(right < size && order.compare(heap[right], heap[child]) < 0) child = right;
+			if(order.compare(state, heap[child]) <= 0) break;
+
+			heap[i] = heap[child];
+			index.put(heap[i], i);
+			i = child;
+		}
+		heap[i] = state;
+		index.put(state, i);
+	}
+}
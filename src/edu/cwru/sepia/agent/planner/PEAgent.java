@@ -15,7 +15,12 @@ import edu.cwru.sepia.util.Direction;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
@@ -24,35 +29,72 @@ import java.util.Stack;
  */
 public class PEAgent extends Agent {
 
-    // The plan being executed
-    private Stack<StripsAction> plan = null;
+    // The plan being executed, as a partial order so independent steps run side by side
+    private PlanSchedule schedule = null;
 
-    // maps the real unit Ids to the plan's unit ids
+    // maps the plan's unit ids to the real unit Ids
     // when you're planning you won't know the true unit IDs that sepia assigns. So you'll use placeholders (1, 2, 3).
     // this maps those placeholders to the actual unit IDs.
     private Map<Integer, Integer> peasantIdMap;
     private int townhallId;
     private int peasantTemplateId;
+    
+    // the plan steps being carried out and the units each was handed to
+    private Map<Integer, List<Integer>> running = new LinkedHashMap<Integer, List<Integer>>();
+    
+    // what the plan says the game looks like once the finished steps are done, and the search that patches the plan
+    // when the game turns out different. Without a repair search the plan is followed blindly
+    private GameState expected = null;
+    private PlanRepair repair = null;
+    
+    // a step went wrong, the plan gets repaired once the running steps are done
+    private boolean offPlan = false;
 
+    /**
+     * Runs the plan one step at a time, in plan order.
+     *
+     * @param playernum The player executing the plan
+     * @param plan The plan, first action on top
+     */
     public PEAgent(int playernum, Stack<StripsAction> plan) {
+        this(playernum, plan, null, null);
+    }
+    
+    /**
+     * Runs steps of different units side by side whenever the plan allows it.
+     *
+     * @param playernum The player executing the plan
+     * @param plan The plan, first action on top
+     * @param start The state the plan starts from
+     * @param repair Patches the plan when a step does not go as planned, null to follow the plan blindly
+     */
+    public PEAgent(int playernum, Stack<StripsAction> plan, GameState start, PlanRepair repair) {
         super(playernum);
         peasantIdMap = new HashMap<Integer, Integer>();
-        this.plan = plan;
-
+        this.schedule = new PlanSchedule(plan, start);
+        this.expected = start;
+        this.repair = repair;
+        
+        if(start != null) System.out.println("plan cost " + planCost(plan) + ", critical path " + schedule.criticalPath());
+    }
+    
+    private static double planCost(Stack<StripsAction> plan) {
+    	double cost = 0;
+    	for(StripsAction step : plan) cost += step.getCost();
+    	return cost;
     }
 
     @Override
     public Map<Integer, Action> initialStep(State.StateView stateView, History.HistoryView historyView) {
-        // gets the townhall ID and the peasant ID
+        // gets the townhall ID and the peasant IDs
         for(int unitId : stateView.getUnitIds(playernum)) {
             Unit.UnitView unit = stateView.getUnit(unitId);
             String unitType = unit.getTemplateView().getName().toLowerCase();
             if(unitType.equals("townhall")) {
                 townhallId = unitId;
-            } else if(unitType.equals("peasant")) {
-                peasantIdMap.put(unitId, unitId);
             }
         }
+        mapNewPeasants(stateView);
 
         // Gets the peasant template ID. This is used when building a new peasant with the townhall
         for(Template.TemplateView templateView : stateView.getTemplates(playernum)) {
@@ -93,40 +135,147 @@ public class PEAgent extends Agent {
     	System.out.println();
     	Map<Integer, Action> actions = new HashMap<Integer, Action>();
     	
-    	if(plan.isEmpty()) return actions;
+    	mapNewPeasants(stateView);
+    	
+    	boolean finishedAny = false;
+    	for(Iterator<Map.Entry<Integer, List<Integer>>> it = running.entrySet().iterator(); it.hasNext();) {
+    		Map.Entry<Integer, List<Integer>> entry = it.next();
+    		StripsAction step = schedule.get(entry.getKey());
+    		if(!finished(step, entry.getValue(), stateView, historyView)) continue;
+    		
+    		it.remove();
+    		finishedAny = true;
+    		
+    		// a failed step is not done, nothing that waits for it may start
+    		if(repair != null && failed(entry.getValue(), stateView, historyView)) {
+    			System.out.println(step + " failed");
+    			offPlan = true;
+    			continue;
+    		}
+    		
+    		schedule.done(entry.getKey());
+    		if(repair != null) expected = PlanRepair.step(expected, step);
+    	}
+    	
+    	if(repair != null) {
+    		// the steps still running were fine, so they finish before the plan is patched
+    		if(offPlan && !running.isEmpty()) return actions;
+    		
+    		if(offPlan || (finishedAny && running.isEmpty() && !asPlanned(stateView))) {
+    			replan(stateView);
+    			offPlan = false;
+    		}
+    	}
+    	
+    	for(int i : schedule.ready()) {
+    		StripsAction step = schedule.get(i);
+    		
+    		// a peasant that is still being built can't be given anything yet
+    		if(!mapped(step)) continue;
+    		
+    		if(repair != null && !step.preconditionsMet(expected)) {
+    			System.out.println("preconditions of " + step + " do not hold");
+    			offPlan = true;
+    			break;
+    		}
+    		
+    		Map<Integer, Action> stepActions = createSepiaAction(stateView, step);
+    		schedule.start(i);
+    		running.put(i, new ArrayList<Integer>(stepActions.keySet()));
+    		actions.putAll(stepActions);
+    	}
+    	
+        return actions;
+    }
+    
+    private boolean mapped(StripsAction step) {
+    	for(int id : step.getPeasantIds()) {
+    		if(!peasantIdMap.containsKey(id)) return false;
+    	}
+    	return true;
+    }
+    
+    /**
+     * A step is done once every one of its units reported an outcome for last turn: COMPLETED, FAILED or one of SEPIA's
+     * invalid action results. A unit with no feedback is still at it, not done. A unit that is gone never reports again,
+     * so it counts as failed. A build is done once the new peasant shows up.
+     */
+    private boolean finished(StripsAction step, List<Integer> units, State.StateView stateView, History.HistoryView historyView) {
+    	if(step instanceof BuildPeasant) {
+    		return peasantIdMap.containsKey(((BuildPeasant) step).getNewPeasantId()) || failed(units, stateView, historyView);
+    	}
     	
+    	Map<Integer, ActionResult> feedback = lastFeedback(stateView, historyView);
+    	for(int unitId : units) {
+    		if(stateView.getUnit(unitId) == null) continue;
+    		
+    		ActionResult previous = feedback.get(unitId);
+    		if(previous == null || previous.getFeedback() == ActionFeedback.INCOMPLETE) return false;
+    	}
+    	return true;
+    }
+    
+    /**
+     * With nothing running the game should look like the plan says it does after the finished steps.
+     */
+    private boolean asPlanned(State.StateView stateView) {
+    	return new GameState(stateView, playernum, peasantIdMap, expected, expected).equals(expected);
+    }
+    
+    // true if a unit is gone, or reported FAILED or one of SEPIA's invalid action results
+    private boolean failed(List<Integer> units, State.StateView stateView, History.HistoryView historyView) {
+    	Map<Integer, ActionResult> feedback = lastFeedback(stateView, historyView);
+    	for(int unitId : units) {
+    		if(stateView.getUnit(unitId) == null) return true;
+    		
+    		ActionResult previous = feedback.get(unitId);
+    		if(previous == null) continue;
+    		if(previous.getFeedback() != ActionFeedback.COMPLETED && previous.getFeedback() != ActionFeedback.INCOMPLETE) return true;
+    	}
+    	return false;
+    }
+    
+    // last turn's feedback by unit id, empty on the first turn
+    private Map<Integer, ActionResult> lastFeedback(State.StateView stateView, History.HistoryView historyView) {
     	int lastTurn = stateView.getTurnNumber() - 1;
+    	if(lastTurn < 0) return Collections.emptyMap();
     	
-    	if(lastTurn < 0) {
-    		actions.put(1, createSepiaAction(stateView, plan.pop()));
-    		return actions;
+    	return historyView.getCommandFeedback(playernum, lastTurn);
+    }
+    
+    /**
+     * Swaps the rest of the plan for one from the state the game is really in. If no goal can be reached from there
+     * the plan is dropped. Only called with nothing running.
+     */
+    private void replan(State.StateView stateView) {
+    	GameState observed = new GameState(stateView, playernum, peasantIdMap, expected, expected);
+    	System.out.println("the game went off the plan, repairing");
+    	
+    	Stack<StripsAction> repaired = repair.repair(observed);
+    	if(repaired == null) {
+    		System.err.println("No way to the goal from here");
+    		repaired = new Stack<StripsAction>();
     	}
     	
-    	Map<Integer, ActionResult> actionResults = historyView.getCommandFeedback(playernum, lastTurn);
-    	boolean done = false;
+    	schedule = new PlanSchedule(repaired, observed);
+    	expected = observed;
+    }
+    
+    /**
+     * Hands out plan ids to peasants that are not mapped yet, in unit id order. At the start these are the peasants
+     * the planner numbered the same way, later on they are the peasants made by BuildPeasant.
+     */
+    private void mapNewPeasants(State.StateView stateView) {
+    	List<Integer> unitIds = new ArrayList<Integer>(stateView.getUnitIds(playernum));
+    	Collections.sort(unitIds);
     	
-    	while(!done) {
+    	for(int unitId : unitIds) {
+    		if(peasantIdMap.containsValue(unitId)) continue;
     		
-    		if(plan.empty()) done = true;
-    		else {
-    			StripsAction next = plan.peek();
-    			ActionResult previous = actionResults.get(1);
-    			
-    			
-    			if(!(previous != null && previous.getFeedback() != ActionFeedback.INCOMPLETE)) {
-    				done = true;
-    			}
-    			else if (previous != null && previous.getFeedback() == ActionFeedback.COMPLETED) {    				
-    				actions.put(1, createSepiaAction(stateView, plan.pop()));
-    				done = true;
-    			}
-    			else {
-    				actions.put(1, createSepiaAction(stateView, plan.pop()));
-    				done = true;
-    			}
+    		if(stateView.getUnit(unitId).getTemplateView().getName().toLowerCase().equals("peasant")) {
+    			peasantIdMap.put(peasantIdMap.size() + 1, unitId);
     		}
     	}
-        return actions;
     }
 
     /**
@@ -150,23 +299,34 @@ public class PEAgent extends Agent {
      * these actions are stored in a mapping between the peasant unit ID executing the action and the action you created.
      *
      * @param action StripsAction
-     * @return SEPIA representation of same action
+     * @return SEPIA representation of same action, one per unit carrying it out
      */
-    private Action createSepiaAction(State.StateView state, StripsAction action) {
-    	//well, this version only has one peasant so i'll keep it simple
-    	UnitView peasant = state.getUnit(peasantIdMap.get(1));
+    private Map<Integer, Action> createSepiaAction(State.StateView state, StripsAction action) {
+    	Map<Integer, Action> actions = new HashMap<Integer, Action>();
     	
     	System.out.println(action);
     	
-    	if(!action.directed()) { 
-    		System.out.println("non directed action, bob currently at " + peasant.getXPosition() + " " + peasant.getYPosition());
-    		return action.createSepia(1, null); 
+    	// no peasants means the townhall does it
+    	if(action.getPeasantIds().isEmpty()) {
+    		actions.put(townhallId, action.createSepia(townhallId, null));
     	}
     	
-    	Position pos = new Position(peasant.getXPosition(), peasant.getYPosition());
-    	Position goalPos = action.targetPos();
+    	for(int planId : action.getPeasantIds()) {
+    		int unitId = peasantIdMap.get(planId);
+    		UnitView peasant = state.getUnit(unitId);
+    		
+    		if(!action.directed()) {
+    			actions.put(unitId, action.createSepia(unitId, null));
+    			continue;
+    		}
+    		
+    		Position pos = new Position(peasant.getXPosition(), peasant.getYPosition());
+    		Position goalPos = action.targetPos();
+    		
+    		actions.put(unitId, action.createSepia(unitId, pos.getDirection(goalPos)));
+    	}
     	
-    	return action.createSepia(peasantIdMap.get(1), pos.getDirection(goalPos));
+    	return actions;
     }
 
     @Override
@@ -0,0 +1,224 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hash distributed A* (HDA*). Every state has an owner thread picked by its hash, and only the owner keeps its
+ * open and closed entries, so the workers never lock each other's lists. A worker that generates a child sends it to
+ * the owner's inbox, which is a lock-free queue.
+ *
+ * States are ordered by f = cost + heuristic. A goal only becomes the incumbent when it is popped, and states whose
+ * f is not below the incumbent cost are never expanded. The search stops once no worker has anything left under the
+ * incumbent and nothing is in flight, so the incumbent is optimal whenever the heuristic is admissible.
+ *
+ * Termination uses a single counter of outstanding work: one unit per message in flight plus one per busy worker.
+ * Only busy workers send, so once the counter hits 0 it stays there.
+ *
+ * A worker with nothing to do spins briefly, then parks for twice as long each time up to a millisecond. Sending to a
+ * parked worker unparks it, so a message does not wait for the timeout.
+ */
+public class ParallelAstar {
+
+	//ties go to the state closer to a goal, otherwise every order of the same trips gets expanded
+	private static final Comparator<GameState> BY_F = Comparator.<GameState>comparingDouble((s) -> s.getCost() + s.heuristic())
+			.thenComparingDouble(GameState::heuristic);
+
+	// an idle worker spins this many times before it parks, first for MIN_PARK and at most for MAX_PARK nanoseconds
+	private static final int SPINS = 64;
+	private static final long MIN_PARK = 1_000;
+	private static final long MAX_PARK = 1_000_000;
+
+	private final int threads;
+
+	private final Worker[] workers;
+	private final AtomicLong work = new AtomicLong();
+	private SearchMetrics metrics;
+
+	private volatile boolean done = false;
+
+	// best goal popped so far, guarded by this
+	private GameState incumbent = null;
+	private volatile double incumbentCost = Double.POSITIVE_INFINITY;
+
+	public ParallelAstar(int threads) {
+		this.threads = threads;
+		this.workers = new Worker[threads];
+	}
+
+	/**
+	 * @param startState The state which is being planned from
+	 * @return The plan or null if no plan is found.
+	 */
+	public Stack<StripsAction> search(GameState startState) {
+		for(int i = 0; i < threads; i++) workers[i] = new Worker();
+		metrics = GameState.metrics;
+
+		long startTime = System.nanoTime();
+
+		send(startState);
+
+		//every worker knows its thread before any of them can send
+		Thread[] running = new Thread[threads];
+		for(int i = 0; i < threads; i++) {
+			running[i] = new Thread(workers[i], "hda-worker-" + i);
+			workers[i].thread = running[i];
+		}
+		for(Thread thread : running) thread.start();
+
+		try {
+			for(Thread thread : running) thread.join();
+		} catch (InterruptedException e) {
+			finish();
+			Thread.currentThread().interrupt();
+			return null;
+		}
+
+		//the workers peak at different times, so this adds up to at least the real peak
+		long peakOpen = 0;
+		long peakClosed = 0;
+		for(Worker worker : workers) {
+			peakOpen += worker.peakOpen;
+			peakClosed += worker.peakClosed;
+		}
+		metrics.listSizes(peakOpen, peakClosed);
+		
+		long expanded = metrics.getExpanded();
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		System.out.printf("HDA* with %d threads expanded %d nodes in %.3f s (%.0f expansions/s)%n",
+				threads, expanded, seconds, seconds > 0 ? expanded / seconds : 0.0);
+
+		synchronized(this) {
+			return incumbent == null ? null : incumbent.getPlan();
+		}
+	}
+
+	private void send(GameState state) {
+		if(state.getCost() + state.heuristic() >= incumbentCost) return;
+
+		work.incrementAndGet();
+		Worker owner = workers[Math.floorMod(state.hashCode(), threads)];
+		owner.inbox.add(state);
+		if(owner.parked) LockSupport.unpark(owner.thread);
+	}
+
+	private void finish() {
+		done = true;
+		for(Worker worker : workers) LockSupport.unpark(worker.thread);
+	}
+
+	private synchronized void offerGoal(GameState goal) {
+		if(goal.getCost() < incumbentCost) {
+			incumbent = goal;
+			incumbentCost = goal.getCost();
+		}
+	}
+
+	private class Worker implements Runnable {
+
+		private final ConcurrentLinkedQueue<GameState> inbox = new ConcurrentLinkedQueue<GameState>();
+
+		private final OpenList openList = new OpenList(BY_F);
+
+		// lowest cost seen for every state this worker owns, open or closed
+		private final Map<GameState, Double> bestCost = new HashMap<GameState, Double>();
+
+		private boolean busy = false;
+
+		private Thread thread;
+		// set while the worker parks, a sender unparks it
+		private volatile boolean parked = false;
+		// idle rounds in a row
+		private int idle = 0;
+		
+		// largest open list and number of closed states this worker has had
+		private int peakOpen = 0;
+		private int peakClosed = 0;
+
+		@Override
+		public void run() {
+			while(!done) {
+
+				GameState message;
+				while((message = inbox.poll()) != null) {
+					//a worker that wakes up takes over the message's unit of work
+					if(busy) work.decrementAndGet();
+					else busy = true;
+
+					idle = 0;
+					receive(message);
+				}
+
+				if(!openList.isEmpty()) {
+					GameState current = openList.poll();
+					if(current.getCost() + current.heuristic() < incumbentCost) expand(current);
+					continue;
+				}
+
+				if(busy) {
+					busy = false;
+					if(work.decrementAndGet() == 0) finish();
+				}
+				else {
+					waitForMessage();
+				}
+			}
+		}
+
+		/**
+		 * Spins for the first SPINS idle rounds, then parks with a timeout that doubles every round up to MAX_PARK.
+		 * The inbox is checked again after parked is set, so a message sent just before is not slept through.
+		 */
+		private void waitForMessage() {
+			if(idle < SPINS) {
+				idle++;
+				Thread.onSpinWait();
+				return;
+			}
+
+			long timeout = Math.min(MAX_PARK, MIN_PARK << Math.min(idle++ - SPINS, 10));
+			parked = true;
+			if(inbox.isEmpty() && !done) LockSupport.parkNanos(this, timeout);
+			parked = false;
+		}
+
+		private void receive(GameState state) {
+			Double known = bestCost.get(state);
+			if(known != null && known <= state.getCost()) {
+				metrics.duplicate();
+				return;
+			}
+
+			bestCost.put(state, state.getCost());
+
+			if(!openList.replace(state)) openList.add(state);
+		}
+
+		private void expand(GameState current) {
+			if(current.isGoal()) {
+				offerGoal(current);
+				return;
+			}
+
+			metrics.expanded();
+			
+			List<GameState> children = current.generateChildren();
+			metrics.generated(children.size());
+
+			for(GameState child : children) {
+				send(child);
+			}
+			
+			peakOpen = Math.max(peakOpen, openList.size());
+			peakClosed = Math.max(peakClosed, bestCost.size() - openList.size());
+		}
+	}
+}
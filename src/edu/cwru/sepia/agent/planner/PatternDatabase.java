@@ -0,0 +1,423 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Pattern database heuristic: exact costs of an abstract version of the planning problem, solved once per scenario and
+ * kept in a memory mapped file so later runs of the same scenario only look them up.
+ *
+ * The abstraction only keeps how many peasants are in each class, where a class is a kind of place (the townhall, any
+ * gold mine, any tree, anywhere else) and what the peasant carries, plus the loads of gold and wood still needed.
+ * Moving between two kinds of place costs the shortest walk between any two such places, and harvesting, depositing
+ * and building cost what their actions do. Peasants of one class can act together for the price of one, like the
+ * K actions. Resources never run out. Every real action maps onto an abstract one that costs no more, so the exact
+ * abstract cost never overestimates and never drops by more than the action taken costs.
+ *
+ * The costs are worked out backwards from the goal with Dijkstra. Gold is counted as loads still needed, negative for a
+ * surplus down to what the remaining peasants cost, since more gold than that changes nothing.
+ *
+ * Files live in saves/pdb, named by the PlanCache fingerprint of the scenario, which covers the goals and buildPeasants
+ * as well as the map since the size of the table depends on them. The abstract action costs are stored with the table,
+ * a file whose costs do not match the map (different walls, say) is built again. The least recently used files are
+ * deleted past MAX_FILES.
+ */
+public class PatternDatabase {
+
+	private static final int MAGIC = 0x50444231;
+	private static final int LOAD = 100;
+
+	// peasant classes, where a peasant is and what it carries
+	public static final int ELSEWHERE = 0, ELSEWHERE_GOLD = 1, ELSEWHERE_WOOD = 2;
+	public static final int TOWNHALL = 3, TOWNHALL_GOLD = 4, TOWNHALL_WOOD = 5;
+	public static final int MINE = 6, MINE_GOLD = 7, TREE = 8, TREE_WOOD = 9;
+	// number of classes, the length of the class counts estimate takes
+	public static final int CLASSES = 10;
+
+	// largest table that gets built, in entries of 4 bytes
+	private static final long MAX_ENTRIES = 1 << 24;
+	// files kept in the directory, a table can take up to 64 MB
+	private static final int MAX_FILES = 32;
+
+	// k peasants of class from become class to, depositing k loads of gold or wood if the flags say so
+	private static final class Transition {
+		final int from;
+		final int to;
+		final float cost;
+		final boolean gold;
+		final boolean wood;
+
+		Transition(int from, int to, double cost, boolean gold, boolean wood) {
+			this.from = from;
+			this.to = to;
+			this.cost = (float) cost;
+			this.gold = gold;
+			this.wood = wood;
+		}
+	}
+
+	private final Position townhallPos;
+	private final Set<Position> mines;
+	private final Set<Position> trees;
+
+	private final int minPeasants;
+	private final int maxPeasants;
+	private final int goldLoads;
+	private final int woodLoads;
+	private final int buildLoads;
+	private final float buildCost;
+
+	// lowest gold loads needed that is told apart, a bigger surplus pays for every peasant that can still be built
+	private final int goldLow;
+	private final int goldRange;
+	private final int woodRange;
+
+	private final List<Transition> transitions = new ArrayList<Transition>();
+
+	// peasant counts per class of every abstract peasant set, and their index by packed counts
+	private final List<int[]> configs = new ArrayList<int[]>();
+	private final Map<Long, Integer> configIndex = new HashMap<Long, Integer>();
+
+	private FloatBuffer table;
+
+	/**
+	 * @param townhallPos Townhall position
+	 * @param mines Gold mine positions
+	 * @param trees Tree positions
+	 * @param elsewhere Every other position a peasant can start from
+	 * @param minPeasants Peasants at the start
+	 * @param maxPeasants Most peasants that can exist at once
+	 * @param requiredGold Gold goal
+	 * @param requiredWood Wood goal
+	 * @param peasantGold Gold a peasant costs, 0 if peasants are not built
+	 * @param moveCost Cost of walking between two positions
+	 * @param harvestCost Cost of a harvest
+	 * @param depositCost Cost of a deposit
+	 * @param buildCost Cost of building a peasant
+	 */
+	private PatternDatabase(Position townhallPos, Set<Position> mines, Set<Position> trees, Set<Position> elsewhere,
+			int minPeasants, int maxPeasants, int requiredGold, int requiredWood, int peasantGold,
+			MoveCost moveCost, double harvestCost, double depositCost, double buildCost) {
+
+		this.townhallPos = townhallPos;
+		this.mines = mines;
+		this.trees = trees;
+
+		this.minPeasants = minPeasants;
+		this.maxPeasants = peasantGold > 0 ? maxPeasants : minPeasants;
+		this.goldLoads = loads(requiredGold);
+		this.woodLoads = loads(requiredWood);
+		this.buildLoads = peasantGold / LOAD;
+		this.buildCost = (float) buildCost;
+
+		this.goldLow = -buildLoads * (this.maxPeasants - minPeasants);
+		this.goldRange = goldLoads - goldLow + 1;
+		this.woodRange = woodLoads + 1;
+
+		Set<Position> townhall = Set.of(townhallPos);
+		Set<Position> anywhere = new HashSet<Position>(elsewhere);
+		anywhere.addAll(mines);
+		anywhere.addAll(trees);
+
+		//the same moves generateChildren makes: empty handed to a resource, loaded to the townhall. Anywhere else also
+		//stands for a peasant the PEAgent finds off the plan, so it walks from the closest of every known place
+		double toMine = moveCost.between(anywhere, mines);
+		double toTree = moveCost.between(anywhere, trees);
+		double home = moveCost.between(anywhere, townhall);
+		addMove(ELSEWHERE, MINE, toMine);
+		addMove(ELSEWHERE, TREE, toTree);
+		addMove(ELSEWHERE_GOLD, TOWNHALL_GOLD, home);
+		addMove(ELSEWHERE_WOOD, TOWNHALL_WOOD, home);
+		addMove(TOWNHALL, MINE, moveCost.between(townhall, mines));
+		addMove(TOWNHALL, TREE, moveCost.between(townhall, trees));
+		addMove(MINE, TREE, moveCost.between(mines, trees));
+		addMove(TREE, MINE, moveCost.between(trees, mines));
+		addMove(MINE_GOLD, TOWNHALL_GOLD, moveCost.between(mines, townhall));
+		addMove(TREE_WOOD, TOWNHALL_WOOD, moveCost.between(trees, townhall));
+
+		if(!mines.isEmpty()) transitions.add(new Transition(MINE, MINE_GOLD, harvestCost, false, false));
+		if(!trees.isEmpty()) transitions.add(new Transition(TREE, TREE_WOOD, harvestCost, false, false));
+		transitions.add(new Transition(TOWNHALL_GOLD, TOWNHALL, depositCost, true, false));
+		transitions.add(new Transition(TOWNHALL_WOOD, TOWNHALL, depositCost, false, true));
+
+		for(int p = minPeasants; p <= this.maxPeasants; p++) addConfigs(new int[CLASSES], 0, p);
+	}
+
+	private void addMove(int from, int to, double cost) {
+		if(cost < Double.POSITIVE_INFINITY) transitions.add(new Transition(from, to, cost, false, false));
+	}
+
+	private void addConfigs(int[] counts, int c, int left) {
+		if(c == CLASSES - 1) {
+			int[] config = counts.clone();
+			config[c] = left;
+			configIndex.put(pack(config), configs.size());
+			configs.add(config);
+			return;
+		}
+		for(int n = 0; n <= left; n++) {
+			counts[c] = n;
+			addConfigs(counts, c + 1, left - n);
+		}
+		counts[c] = 0;
+	}
+
+	/**
+	 * Cost of the cheapest walk from any of one set of positions to any of another
+	 */
+	public interface MoveCost {
+		double between(Set<Position> from, Set<Position> to);
+	}
+
+	/**
+	 * Maps the database for a scenario, building and saving it first if there is no file for the scenario yet or the
+	 * file was built for different action costs.
+	 *
+	 * @return The database, or null if it would be too big or the file cannot be used
+	 */
+	public static PatternDatabase forMap(File dir, long fingerprint, Position townhallPos, Set<Position> mines,
+			Set<Position> trees, Set<Position> elsewhere, int minPeasants, int maxPeasants, int requiredGold,
+			int requiredWood, int peasantGold, MoveCost moveCost, double harvestCost, double depositCost, double buildCost) {
+
+		PatternDatabase database = new PatternDatabase(townhallPos, mines, trees, elsewhere, minPeasants, maxPeasants,
+				requiredGold, requiredWood, peasantGold, moveCost, harvestCost, depositCost, buildCost);
+
+		long entries = (long) database.configs.size() * database.goldRange * database.woodRange;
+		if(maxPeasants >= 16 || entries > MAX_ENTRIES) {
+			System.out.println("Pattern database would hold " + entries + " entries, planning without it");
+			return null;
+		}
+
+		File file = new File(dir, String.format("%016x.pdb", fingerprint));
+		try {
+			if(!database.map(file)) {
+				long startTime = System.nanoTime();
+				float[] costs = database.solve((int) entries);
+				dir.mkdirs();
+				database.write(file, costs);
+				System.out.printf("Built pattern database %s, %d entries in %.3f s%n", file.getName(), entries,
+						(System.nanoTime() - startTime) / 1e9);
+				if(!database.map(file)) return null;
+			}
+		} catch (IOException e) {
+			System.err.println("Could not use pattern database " + file + ": " + e.getMessage());
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis());
+		evict(dir);
+		return database;
+	}
+
+	/**
+	 * Deletes the least recently used files in dir past MAX_FILES.
+	 */
+	private static void evict(File dir) {
+		File[] files = dir.listFiles((d, name) -> name.endsWith(".pdb"));
+		if(files == null || files.length <= MAX_FILES) return;
+
+		Arrays.sort(files, (x, y) -> Long.compare(y.lastModified(), x.lastModified()));
+		for(int i = MAX_FILES; i < files.length; i++) {
+			if(!files[i].delete()) System.err.println("Could not delete pattern database " + files[i]);
+		}
+	}
+
+	/**
+	 * @param pos Where a peasant stands
+	 * @param gold Gold it carries
+	 * @param wood Wood it carries
+	 * @return Its class
+	 */
+	public int peasantClass(Position pos, int gold, int wood) {
+		int cargo = gold > 0 ? 1 : wood > 0 ? 2 : 0;
+
+		if(pos.equals(townhallPos)) return TOWNHALL + cargo;
+		if(cargo == 0 && mines.contains(pos)) return MINE;
+		if(cargo == 1 && mines.contains(pos)) return MINE_GOLD;
+		if(cargo == 0 && trees.contains(pos)) return TREE;
+		if(cargo == 2 && trees.contains(pos)) return TREE_WOOD;
+		return ELSEWHERE + cargo;
+	}
+
+	/**
+	 * @param classCounts Peasants in each class
+	 * @param goldNeeded Gold still to be deposited, negative for a surplus
+	 * @param woodNeeded Wood still to be deposited
+	 * @return Exact abstract cost to reach the goal, 0 for a peasant count the database does not cover
+	 */
+	public double estimate(int[] classCounts, int goldNeeded, int woodNeeded) {
+		Integer config = configIndex.get(pack(classCounts));
+		if(config == null) return 0;
+
+		int gold = Math.max(goldLow, Math.min(goldLoads, ceilLoads(goldNeeded)));
+		int wood = Math.min(woodLoads, loads(woodNeeded));
+		return table.get(index(config, gold, wood));
+	}
+
+	private int index(int config, int gold, int wood) {
+		return (config * goldRange + gold - goldLow) * woodRange + wood;
+	}
+
+	/**
+	 * Dijkstra backwards from every goal state over the reversed abstract actions.
+	 */
+	private float[] solve(int entries) {
+		float[] costs = new float[entries];
+		Arrays.fill(costs, Float.POSITIVE_INFINITY);
+
+		PriorityQueue<double[]> queue = new PriorityQueue<double[]>((x, y) -> Double.compare(x[0], y[0]));
+		for(int c = 0; c < configs.size(); c++) {
+			for(int gold = goldLow; gold <= 0; gold++) {
+				costs[index(c, gold, 0)] = 0;
+				queue.add(new double[] { 0, c, gold, 0 });
+			}
+		}
+
+		while(!queue.isEmpty()) {
+			double[] entry = queue.poll();
+			int c = (int) entry[1];
+			int gold = (int) entry[2];
+			int wood = (int) entry[3];
+			float cost = (float) entry[0];
+			if(cost > costs[index(c, gold, wood)]) continue;
+
+			int[] counts = configs.get(c);
+
+			for(Transition t : transitions) {
+				for(int k = 1; k <= counts[t.to]; k++) {
+					int[] before = counts.clone();
+					before[t.to] -= k;
+					before[t.from] += k;
+					int from = configIndex.get(pack(before));
+
+					//depositing k loads from any of these amounts ends up here once the surplus is cut off
+					int goldMax = t.gold ? (gold == goldLow ? goldLow + k : gold + k) : gold;
+					int goldMin = t.gold && gold != goldLow ? goldMax : gold;
+					int woodMax = t.wood ? (wood == 0 ? k : wood + k) : wood;
+					int woodMin = t.wood && wood != 0 ? woodMax : wood;
+
+					for(int g = goldMin; g <= Math.min(goldMax, goldLoads); g++) {
+						for(int w = woodMin; w <= Math.min(woodMax, woodLoads); w++) {
+							relax(costs, queue, from, g, w, cost + t.cost);
+						}
+					}
+				}
+			}
+
+			//a peasant built at the townhall, paid for with gold that has to be made up
+			if(counts[TOWNHALL] > 0 && sum(counts) > minPeasants && gold - buildLoads >= goldLow) {
+				int[] before = counts.clone();
+				before[TOWNHALL]--;
+				relax(costs, queue, configIndex.get(pack(before)), gold - buildLoads, wood, cost + buildCost);
+			}
+		}
+		return costs;
+	}
+
+	private void relax(float[] costs, PriorityQueue<double[]> queue, int config, int gold, int wood, float cost) {
+		int i = index(config, gold, wood);
+		if(cost >= costs[i]) return;
+
+		costs[i] = cost;
+		queue.add(new double[] { cost, config, gold, wood });
+	}
+
+	/**
+	 * The map a file was built for, as ints: sizes, then the float bits of every abstract action cost
+	 */
+	private int[] header() {
+		int[] header = new int[9 + transitions.size() * 4];
+		header[0] = MAGIC;
+		header[1] = minPeasants;
+		header[2] = maxPeasants;
+		header[3] = goldLoads;
+		header[4] = woodLoads;
+		header[5] = buildLoads;
+		header[6] = Float.floatToIntBits(buildCost);
+		header[7] = configs.size();
+		header[8] = transitions.size();
+		for(int t = 0; t < transitions.size(); t++) {
+			Transition transition = transitions.get(t);
+			header[9 + 4 * t] = transition.from;
+			header[10 + 4 * t] = transition.to;
+			header[11 + 4 * t] = Float.floatToIntBits(transition.cost);
+			header[12 + 4 * t] = (transition.gold ? 1 : 0) | (transition.wood ? 2 : 0);
+		}
+		return header;
+	}
+
+	private void write(File file, float[] costs) throws IOException {
+		int[] header = header();
+		ByteBuffer buffer = ByteBuffer.allocate(4 * (header.length + costs.length));
+		buffer.asIntBuffer().put(header);
+		buffer.position(4 * header.length);
+		buffer.asFloatBuffer().put(costs);
+		buffer.position(0);
+
+		//written next to the real file and moved over it, so a reader never maps half a table
+		File part = new File(file.getPath() + ".part");
+		try(FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(buffer.hasRemaining()) channel.write(buffer);
+		}
+		if(!part.renameTo(file)) {
+			file.delete();
+			if(!part.renameTo(file)) throw new IOException("could not move " + part + " to " + file);
+		}
+	}
+
+	/**
+	 * @return False if there is no file or it was built for something else
+	 */
+	private boolean map(File file) throws IOException {
+		if(!file.isFile()) return false;
+
+		int[] header = header();
+		long entries = (long) configs.size() * goldRange * woodRange;
+		if(file.length() != 4 * (header.length + entries)) return false;
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+
+			int[] stored = new int[header.length];
+			mapped.asIntBuffer().get(stored);
+			if(!Arrays.equals(stored, header)) return false;
+
+			mapped.position(4 * header.length);
+			table = mapped.slice().asFloatBuffer();
+		}
+		return true;
+	}
+
+	private static long pack(int[] counts) {
+		long packed = 0;
+		for(int count : counts) packed = packed << 4 | count;
+		return packed;
+	}
+
+	private static int sum(int[] counts) {
+		int sum = 0;
+		for(int count : counts) sum += count;
+		return sum;
+	}
+
+	private static int loads(int amount) {
+		return (Math.max(0, amount) + LOAD - 1) / LOAD;
+	}
+
+	// like loads, but a surplus counts as negative loads, rounded toward needing more
+	private static int ceilLoads(int amount) {
+		return Math.floorDiv(amount + LOAD - 1, LOAD);
+	}
+}
@@ -0,0 +1,214 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.ActionCodec;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Plans found in earlier games, keyed by a fingerprint of the scenario so a repeated scenario skips the search.
+ *
+ * The fingerprint covers the map size, every resource (type, position, amount), every unit (template and position),
+ * the player's gold and wood, the goals, buildPeasants and the search settings. Unit ids are left out since
+ * plans only use plan ids. A cached plan is replayed against the start state before it is used, so a stale entry or a
+ * fingerprint collision means a fresh search instead of a broken plan.
+ *
+ * The file holds a magic number, a version and the entry count, then for every entry the fingerprint, the action
+ * count and the actions in the binary form of ActionCodec, first action first. The least recently used entries are
+ * dropped past MAX_ENTRIES.
+ */
+public class PlanCache {
+
+	private static final int MAGIC = 0x504C4E43; // "PLNC"
+	private static final int VERSION = 1;
+	private static final int MAX_ENTRIES = 256;
+	// longer than any plan the planner finds, a longer one in a file means the file is broken
+	private static final int MAX_PLAN_LENGTH = 1 << 16;
+
+	// plans in execution order, least recently used first
+	private final Map<Long, List<StripsAction>> plans = new LinkedHashMap<Long, List<StripsAction>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, List<StripsAction>> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	public int size() {
+		return plans.size();
+	}
+
+	/**
+	 * @param map The map planning starts from
+	 * @param requiredGold Gold goal
+	 * @param requiredWood Wood goal
+	 * @param buildPeasants True if the plan may build peasants
+	 * @param settings Anything else that changes which plan the search returns
+	 * @return 64 bit fingerprint of the scenario
+	 */
+	public static long fingerprint(PlanningMap map, int requiredGold, int requiredWood, boolean buildPeasants, String settings) {
+
+		long h = mix(0x9E3779B97F4A7C15L, map.getXExtent());
+		h = mix(h, map.getYExtent());
+		h = mix(h, requiredGold);
+		h = mix(h, requiredWood);
+		h = mix(h, buildPeasants ? 1 : 0);
+		h = mix(h, settings.hashCode());
+		h = mix(h, map.getGold());
+		h = mix(h, map.getWood());
+
+		//sorted so the order SEPIA lists things in doesn't matter
+		List<long[]> things = new ArrayList<long[]>();
+		for(PlanningMap.Resource resource : map.getResources()) {
+			things.add(new long[] { 0, resource.x, resource.y, resource.gold ? 1 : 0, resource.amount });
+		}
+		for(PlanningMap.Unit unit : map.getUnits()) {
+			things.add(new long[] { 1, unit.x, unit.y, unit.name.hashCode() });
+		}
+		things.sort(Arrays::compare);
+
+		for(long[] thing : things) {
+			for(long value : thing) h = mix(h, value);
+		}
+		return h;
+	}
+
+	private static long mix(long h, long value) {
+		h ^= value;
+		h *= 0xBF58476D1CE4E5B9L;
+		return h ^ (h >>> 31);
+	}
+
+	/**
+	 * Looks up a plan and checks it still works from the start state.
+	 *
+	 * @param fingerprint Scenario fingerprint
+	 * @param start The state planning starts from
+	 * @return The cached plan with the first action on top, or null if there is none or it doesn't reach the goal
+	 */
+	public Stack<StripsAction> get(long fingerprint, GameState start) {
+		List<StripsAction> actions = plans.get(fingerprint);
+		if(actions == null) return null;
+
+		GameState state = start;
+		for(StripsAction action : actions) {
+			if(!action.preconditionsMet(state)) {
+				plans.remove(fingerprint);
+				return null;
+			}
+			state = action.apply(state);
+		}
+		if(!state.isGoal()) {
+			plans.remove(fingerprint);
+			return null;
+		}
+
+		Stack<StripsAction> plan = new Stack<StripsAction>();
+		for(int i = actions.size() - 1; i >= 0; i--) plan.push(actions.get(i));
+		return plan;
+	}
+
+	/**
+	 * @param fingerprint Scenario fingerprint
+	 * @param plan Plan with the first action on top, left as it is
+	 */
+	public void put(long fingerprint, Stack<StripsAction> plan) {
+		List<StripsAction> actions = new ArrayList<StripsAction>(plan);
+		Collections.reverse(actions);
+		plans.put(fingerprint, actions);
+	}
+
+	/**
+	 * Replaces the cache with what is in the stream.
+	 *
+	 * @param input Stream in the format written by write()
+	 * @throws IOException if the stream can't be read or isn't a plan cache
+	 */
+	public void read(InputStream input) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+
+		if(in.readInt() != MAGIC) throw new IOException("Not a plan cache");
+		int version = in.readShort();
+		if(version != VERSION) throw new IOException("Plan cache version " + version + ", expected " + VERSION);
+
+		Map<Long, List<StripsAction>> read = new LinkedHashMap<Long, List<StripsAction>>();
+
+		int entries = in.readInt();
+		if(entries < 0 || entries > MAX_ENTRIES) throw new IOException("Plan cache with " + entries + " entries");
+		for(int e = 0; e < entries; e++) {
+			long fingerprint = in.readLong();
+			int length = in.readInt();
+			if(length < 0 || length > MAX_PLAN_LENGTH) throw new IOException("Cached plan of " + length + " actions");
+
+			List<StripsAction> actions = new ArrayList<StripsAction>();
+			for(int i = 0; i < length; i++) actions.add(ActionCodec.read(in));
+			read.put(fingerprint, actions);
+		}
+
+		plans.clear();
+		plans.putAll(read);
+	}
+
+	/**
+	 * @param output Stream to write the cache to, flushed but not closed
+	 * @throws IOException if writing fails
+	 */
+	public void write(OutputStream output) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeInt(plans.size());
+
+		for(Map.Entry<Long, List<StripsAction>> entry : plans.entrySet()) {
+			out.writeLong(entry.getKey());
+			out.writeInt(entry.getValue().size());
+			for(StripsAction action : entry.getValue()) ActionCodec.write(out, action);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads the cache from a file. A missing file is an empty cache, a bad one is reported and ignored.
+	 */
+	public void load(File file) {
+		if(!file.exists()) return;
+
+		try(InputStream in = new FileInputStream(file)) {
+			read(in);
+		} catch (IOException e) {
+			System.err.println("Ignoring plan cache " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes the cache to a file, making its directory if needed.
+	 */
+	public void save(File file) {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if(dir != null) dir.mkdirs();
+
+		try(OutputStream out = new FileOutputStream(file)) {
+			write(out);
+		} catch (IOException e) {
+			System.err.println("Could not save plan cache " + file + ": " + e.getMessage());
+		}
+	}
+}
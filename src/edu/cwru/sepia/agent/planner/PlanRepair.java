@@ -0,0 +1,156 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Patches a plan when the game stops following it, without searching from scratch.
+ *
+ * Every state on the plan is remembered with its exact cost to the end of the plan and the step that follows it. A
+ * repair searches forward from the state the game is really in, with those remembered costs in place of the heuristic,
+ * and stops as soon as it reaches a goal or any remembered state. The rest of the plan is then spliced on from there.
+ * When a step just failed the game is usually one step off the plan, so the repair costs a handful of expansions.
+ *
+ * Like the cost-to-goal values of LPA* and D* Lite, what the searches learn is kept: every repaired plan is remembered as
+ * well, so later repairs can join any plan found so far. The planner's goal is a set of states, so there is no goal
+ * to search backwards from and the remembered costs take the place of that backward search.
+ */
+public class PlanRepair {
+
+	// a state known to reach a goal, how much it costs from there and the step to take
+	private static class Known {
+		final double toGo;
+		final StripsAction next;
+		final GameState nextState;
+
+		Known(double toGo, StripsAction next, GameState nextState) {
+			this.toGo = toGo;
+			this.next = next;
+			this.nextState = nextState;
+		}
+	}
+
+	private final double weight;
+	private final Map<GameState, Known> known = new HashMap<GameState, Known>();
+
+	/**
+	 * @param start The state the plan starts from
+	 * @param plan The plan, first action on top. It is not modified.
+	 * @param weight Heuristic weight of the repair search, the planner's astarweight
+	 */
+	public PlanRepair(GameState start, Stack<StripsAction> plan, double weight) {
+		this.weight = weight;
+		remember(start, plan);
+	}
+
+	/**
+	 * Walks a plan and remembers the cost from every state on it to its end. A state that is already known through a
+	 * cheaper way keeps it.
+	 */
+	private void remember(GameState start, Stack<StripsAction> plan) {
+		List<GameState> states = new ArrayList<GameState>();
+		List<StripsAction> steps = new ArrayList<StripsAction>();
+
+		GameState state = start;
+		for(int i = plan.size() - 1; i >= 0; i--) {
+			StripsAction step = plan.get(i);
+			if(!step.preconditionsMet(state)) return;
+
+			states.add(state);
+			steps.add(step);
+			state = step(state, step);
+		}
+		if(!state.isGoal()) return;
+
+		//backwards from the goal, so every entry agrees with the one after it
+		known.putIfAbsent(state, new Known(0, null, null));
+		for(int i = states.size() - 1; i >= 0; i--) {
+			GameState next = i + 1 < states.size() ? states.get(i + 1) : state;
+			double toGo = steps.get(i).getCost() + known.get(next).toGo;
+
+			Known old = known.get(states.get(i));
+			if(old == null || old.toGo > toGo) known.put(states.get(i), new Known(toGo, steps.get(i), next));
+		}
+	}
+
+	/**
+	 * @param state A state the plan says the game is in
+	 * @param step The step taken from it
+	 * @return The state after the step, with its cost
+	 */
+	public static GameState step(GameState state, StripsAction step) {
+		GameState next = step.apply(state);
+		state.update(next, step);
+		return next;
+	}
+
+	/**
+	 * Finds a plan from the state the game is really in, joining the plans seen so far where it can.
+	 *
+	 * @param observed The state the game is in
+	 * @return The plan with the first action on top, or null if no goal can be reached
+	 */
+	public Stack<StripsAction> repair(GameState observed) {
+		OpenList openList = new OpenList(Comparator.<GameState>comparingDouble((s) -> s.getCost() + estimate(s))
+				.thenComparingDouble(this::estimate));
+		StateKeySet closedSet = new StateKeySet(GameState.keyWidth());
+
+		openList.add(observed);
+		int expanded = 0;
+		long startTime = System.nanoTime();
+
+		while(!openList.isEmpty()) {
+			GameState current = openList.poll();
+
+			if(current.isGoal() || known.containsKey(current)) {
+				Stack<StripsAction> plan = splice(current);
+				remember(observed, plan);
+
+				System.out.printf("repaired the plan in %d expansions, %.3f ms%n", expanded, (System.nanoTime() - startTime) / 1e6);
+				return plan;
+			}
+
+			closedSet.add(current.key());
+			expanded++;
+
+			for(GameState child : current.generateChildren()) {
+				if(closedSet.contains(child.key())) continue;
+
+				GameState open = openList.get(child);
+
+				if(open == null) openList.add(child);
+				else if(open.getCost() > child.getCost()) openList.replace(child);
+			}
+		}
+		System.out.printf("no repair found after %d expansions%n", expanded);
+		return null;
+	}
+
+	// the cost left is exact for known states, the weighted heuristic for the rest
+	private double estimate(GameState state) {
+		Known k = known.get(state);
+		return k != null ? k.toGo : weight * state.heuristic();
+	}
+
+	// the search's way to the reached state, then the known way from it to a goal
+	private Stack<StripsAction> splice(GameState reached) {
+		List<StripsAction> steps = new ArrayList<StripsAction>();
+
+		Stack<StripsAction> prefix = reached.getPlan();
+		while(!prefix.isEmpty()) steps.add(prefix.pop());
+
+		for(Known k = known.get(reached); k != null && k.next != null; k = known.get(k.nextState)) {
+			steps.add(k.next);
+		}
+
+		Stack<StripsAction> plan = new Stack<StripsAction>();
+		for(int i = steps.size() - 1; i >= 0; i--) plan.push(steps.get(i));
+		return plan;
+	}
+}
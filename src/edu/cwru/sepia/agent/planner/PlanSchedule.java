@@ -0,0 +1,178 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.BuildPeasant;
+import edu.cwru.sepia.agent.planner.actions.Deposit;
+import edu.cwru.sepia.agent.planner.actions.DepositK;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * The plan as a partial order, so the PEAgent can run steps of different units in the same turn.
+ *
+ * Steps of several peasants are split up first (see StripsAction.split), so a peasant of a MoveK that arrives early
+ * harvests right away instead of waiting for the rest of its group.
+ *
+ * A step has to wait for an earlier step when they share something the order matters for:
+ * - a peasant. Each peasant does its own steps in plan order, and a new peasant's steps wait for its BuildPeasant.
+ * - the stockpile. A BuildPeasant spends gold, so it waits for the deposits before it in the plan. Deposits only
+ * add, so they never wait for each other or for a build.
+ * - a resource that runs short. Harvests take whole loads of 100, so harvests from a resource commute unless the
+ * plan takes a last partial load from it. Then they run in plan order.
+ *
+ * Anything else the steps do commutes, so every order that respects these dependencies ends in the same state as
+ * the plan.
+ */
+public class PlanSchedule {
+
+	private final List<StripsAction> steps = new ArrayList<StripsAction>();
+
+	// steps that have to wait for each step, and how many unfinished steps each step still waits for
+	private final List<List<Integer>> successors = new ArrayList<List<Integer>>();
+	private final int[] waiting;
+
+	private final boolean[] started;
+	private int done = 0;
+
+	/**
+	 * @param plan The plan, first action on top. It is not modified.
+	 * @param start The state the plan starts from. Without one nothing is known to be independent and the steps
+	 * run whole and one at a time in plan order.
+	 */
+	public PlanSchedule(Stack<StripsAction> plan, GameState start) {
+		for(int i = plan.size() - 1; i >= 0; i--) {
+			if(start == null) steps.add(plan.get(i));
+			else steps.addAll(plan.get(i).split());
+		}
+		for(int i = 0; i < steps.size(); i++) successors.add(new ArrayList<Integer>());
+		waiting = new int[steps.size()];
+		started = new boolean[steps.size()];
+
+		if(start == null) {
+			for(int i = 1; i < steps.size(); i++) dependsOn(i, i - 1);
+		}
+		else order(start);
+	}
+
+	private void order(GameState start) {
+		Set<Integer> shortResources = shortResources(start);
+
+		// the last step of every peasant and on every short resource, -1 for the townhall
+		Map<Integer, Integer> lastOfPeasant = new HashMap<Integer, Integer>();
+		Map<Integer, Integer> lastOnResource = new HashMap<Integer, Integer>();
+		List<Integer> depositsSinceBuild = new ArrayList<Integer>();
+
+		for(int i = 0; i < steps.size(); i++) {
+			StripsAction step = steps.get(i);
+			Set<Integer> after = new HashSet<Integer>();
+
+			List<Integer> units = new ArrayList<Integer>(step.getPeasantIds());
+			if(step instanceof BuildPeasant) {
+				units.add(-1);
+				units.add(((BuildPeasant) step).getNewPeasantId());
+				after.addAll(depositsSinceBuild);
+				depositsSinceBuild.clear();
+			}
+			for(int unit : units) {
+				Integer last = lastOfPeasant.put(unit, i);
+				if(last != null) after.add(last);
+			}
+
+			if(shortResources.contains(step.getResourceId())) {
+				Integer last = lastOnResource.put(step.getResourceId(), i);
+				if(last != null) after.add(last);
+			}
+
+			if(step instanceof Deposit || step instanceof DepositK) depositsSinceBuild.add(i);
+
+			for(int before : after) dependsOn(i, before);
+		}
+	}
+
+	/**
+	 * Resources the plan takes a load of less than 100 from, found by walking the plan.
+	 */
+	private Set<Integer> shortResources(GameState start) {
+		Set<Integer> shortResources = new HashSet<Integer>();
+
+		GameState state = start;
+		for(StripsAction step : steps) {
+			int id = step.getResourceId();
+			if(id >= 0 && state.resourceAmount(id) < 100 * step.getPeasantIds().size()) shortResources.add(id);
+			state = step.apply(state);
+		}
+		return shortResources;
+	}
+
+	private void dependsOn(int step, int before) {
+		successors.get(before).add(step);
+		waiting[step]++;
+	}
+
+	/**
+	 * @param step Index of the step, in plan order
+	 * @return The step
+	 */
+	public StripsAction get(int step) {
+		return steps.get(step);
+	}
+
+	/**
+	 * @return Steps that are not started and have nothing left to wait for, in plan order
+	 */
+	public List<Integer> ready() {
+		List<Integer> ready = new ArrayList<Integer>();
+		for(int i = 0; i < steps.size(); i++) {
+			if(!started[i] && waiting[i] == 0) ready.add(i);
+		}
+		return ready;
+	}
+
+	public void start(int step) {
+		started[step] = true;
+	}
+
+	/**
+	 * Marks a step as done, the steps waiting for it may be ready now.
+	 */
+	public void done(int step) {
+		done++;
+		for(int next : successors.get(step)) waiting[next]--;
+	}
+
+	/**
+	 * @return True once every step is done
+	 */
+	public boolean finished() {
+		return done == steps.size();
+	}
+
+	/**
+	 * Cost of the longest chain of steps that have to wait for each other, a lower bound on how long the schedule
+	 * takes if every step takes as long as its cost.
+	 *
+	 * @return The critical path cost
+	 */
+	public double criticalPath() {
+		double[] finish = new double[steps.size()];
+		double longest = 0;
+
+		//steps only ever wait for earlier steps, so plan order is a topological order
+		for(int i = 0; i < steps.size(); i++) {
+			finish[i] += steps.get(i).getCost();
+			for(int next : successors.get(i)) finish[next] = Math.max(finish[next], finish[i]);
+			longest = Math.max(longest, finish[i]);
+		}
+		return longest;
+	}
+
+	public int size() {
+		return steps.size();
+	}
+}
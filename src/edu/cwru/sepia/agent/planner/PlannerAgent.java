@@ -17,6 +17,41 @@ public class PlannerAgent extends Agent {
     final int requiredWood;
     final int requiredGold;
     final boolean buildPeasants;
+    
+    // optional search settings, given after the three required args as name=value
+    // threads=N runs hash distributed A* on N threads instead of the single threaded search
+    // budget=MS runs anytime A* (ARA*) and stops improving the plan after MS milliseconds,
+    // weight=W and weightstep=S set its first heuristic weight and how fast the weight drops
+    // weight=W is also the heuristic weight of IDA* and SMA*, 3 unless given
+    // astarweight=W is the heuristic weight of the single threaded A* search and of plan repair. It is 1 unless given,
+    // so A* plans are optimal, anything above trades plan cost for a faster search
+    // ida=true runs iterative deepening A*, which only keeps the current path and fits goals A* runs out of memory on,
+    // idacache=N sets how many states its transposition cache holds (0 turns it off)
+    // sma=N runs memory bounded A* (SMA*) that holds at most N search nodes between expansions
+    // cache=false always searches instead of reusing a plan from an earlier game
+    // macros=false searches over single moves, harvests and deposits instead of whole gathering trips
+    // pdb=false plans without the pattern database heuristic, which is built and saved in saves/pdb for new maps
+    // repair=false follows the plan blindly instead of patching it when a step does not go as planned
+    final int threads;
+    final long budget;
+    final double weight;
+    final double astarWeight;
+    final double weightStep;
+    final boolean useCache;
+    final boolean macros;
+    final boolean repair;
+    final boolean pdb;
+    final boolean ida;
+    final int idaCache;
+    final int smaLimit;
+    
+    // plans from earlier games, read from the player data SEPIA hands over or from saves/plancache.bin
+    private static final File CACHE_FILE = new File("saves", "plancache.bin");
+    private final PlanCache planCache = new PlanCache();
+    private boolean cacheLoaded = false;
+    
+    // counters and timers of the last planning run, see SearchMetrics
+    private static final File METRICS_FILE = new File("saves", "metrics.json");
 
     // Your PEAgent implementation. This prevents you from having to parse the text file representation of your plan.
     PEAgent peAgent;
@@ -31,15 +66,106 @@ public class PlannerAgent extends Agent {
         requiredWood = Integer.parseInt(params[0]);
         requiredGold = Integer.parseInt(params[1]);
         buildPeasants = Boolean.parseBoolean(params[2]);
-
+        
+        Map<String, String> options = parseOptions(params);
+        threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+        budget = Long.parseLong(options.getOrDefault("budget", "-1"));
+        weight = Double.parseDouble(options.getOrDefault("weight", "3"));
+        astarWeight = Double.parseDouble(options.getOrDefault("astarweight", "1"));
+        weightStep = Double.parseDouble(options.getOrDefault("weightstep", "0.5"));
+        useCache = Boolean.parseBoolean(options.getOrDefault("cache", "true"));
+        macros = Boolean.parseBoolean(options.getOrDefault("macros", "true"));
+        repair = Boolean.parseBoolean(options.getOrDefault("repair", "true"));
+        pdb = Boolean.parseBoolean(options.getOrDefault("pdb", "true"));
+        ida = Boolean.parseBoolean(options.getOrDefault("ida", "false"));
+        idaCache = Integer.parseInt(options.getOrDefault("idacache", "100000"));
+        smaLimit = Integer.parseInt(options.getOrDefault("sma", "-1"));
 
         System.out.println("required wood: " + requiredWood + " required gold: " + requiredGold + " build Peasants: " + buildPeasants);
+        System.out.println("search options: " + options);
+    }
+    
+    /**
+     * Reads the optional name=value args that follow the required ones. Anything else is reported and skipped.
+     */
+    private static Map<String, String> parseOptions(String[] params) {
+    	Map<String, String> options = new LinkedHashMap<String, String>();
+    	
+    	for(int i = 3; i < params.length; i++) {
+    		String[] option = params[i].split("=", 2);
+    		
+    		if(option.length == 2) options.put(option[0].trim().toLowerCase(), option[1].trim());
+    		else System.err.println("Ignoring planner arg " + params[i] + ", expected name=value");
+    	}
+    	return options;
     }
 
     @Override
     public Map<Integer, Action> initialStep(State.StateView stateView, History.HistoryView historyView) {
 
-        Stack<StripsAction> plan = AstarSearch(new GameState(stateView, playernum, requiredGold, requiredWood, buildPeasants));
+        long planStart = System.nanoTime();
+        
+        GameState.macroActions = macros;
+        GameState.patternDatabase = pdb;
+        PlanningMap map = new StateViewMap(stateView, playernum);
+        GameState startState = new GameState(map, requiredGold, requiredWood, buildPeasants);
+        
+        // search settings that change which plan comes back, thread count only matters for the parallel search
+        String settings = "budget=" + budget + " weight=" + weight + " astarweight=" + astarWeight + " weightstep=" + weightStep + " parallel=" + (threads > 1) + " macros=" + macros + " pdb=" + pdb + " ida=" + ida + " sma=" + smaLimit;
+        long fingerprint = PlanCache.fingerprint(map, requiredGold, requiredWood, buildPeasants, settings);
+        
+        if(useCache && !cacheLoaded) {
+        	planCache.load(CACHE_FILE);
+        	cacheLoaded = true;
+        }
+        
+        Stack<StripsAction> plan = useCache ? planCache.get(fingerprint, startState) : null;
+        String mode = "cache";
+        //how far from optimal the plan can be with the admissible relaxed plan heuristic. Unknown for a cached plan, and
+        //for SMA*, which can run out of memory for the optimal plan
+        double bound = Double.NaN;
+        long searchStart = System.nanoTime();
+        
+        if(plan != null) {
+        	System.out.printf("Using cached plan %016x, %d actions%n", fingerprint, plan.size());
+        }
+        else {
+        	if(budget >= 0) {
+        		mode = "ara*";
+        		AnytimeAstar anytime = new AnytimeAstar(budget, weight, weightStep);
+        		plan = anytime.search(startState);
+        		bound = anytime.getBound();
+        	}
+        	else if(ida) {
+        		mode = "ida*";
+        		plan = new IterativeDeepeningAstar(weight, idaCache).search(startState);
+        		bound = Math.max(1, weight);
+        	}
+        	else if(smaLimit > 0) {
+        		mode = "sma*";
+        		plan = new MemoryBoundedAstar(weight, smaLimit).search(startState);
+        	}
+        	else if(threads > 1) {
+        		mode = "hda*";
+        		plan = new ParallelAstar(threads).search(startState);
+        		bound = 1;
+        	}
+        	else {
+        		mode = "a*";
+        		plan = AstarSearch(startState);
+        		bound = Math.max(1, astarWeight);
+        	}
+        	
+        	if(plan != null && useCache) {
+        		planCache.put(fingerprint, plan);
+        		planCache.save(CACHE_FILE);
+        	}
+        }
+        
+        long searchEnd = System.nanoTime();
+        GameState.metrics.finish(mode, plan, plan == null ? Double.NaN : bound, searchEnd - searchStart, searchEnd - planStart);
+        GameState.metrics.save(METRICS_FILE);
+        System.out.println(GameState.metrics);
 
         if(plan == null) {
             System.err.println("No plan was found");
@@ -54,7 +180,8 @@ public class PlannerAgent extends Agent {
 
 
         // Instantiates the PEAgent with the specified plan.
-        peAgent = new PEAgent(playernum, plan);
+        if(repair) peAgent = new PEAgent(playernum, plan, startState, new PlanRepair(startState, plan, astarWeight));
+        else peAgent = new PEAgent(playernum, plan, startState, null);
 
         return peAgent.initialStep(stateView, historyView);
     }
@@ -76,12 +203,21 @@ public class PlannerAgent extends Agent {
 
     @Override
     public void savePlayerData(OutputStream outputStream) {
-
+    	try {
+    		planCache.write(outputStream);
+    	} catch (IOException e) {
+    		System.err.println("Could not save plan cache: " + e.getMessage());
+    	}
     }
 
     @Override
     public void loadPlayerData(InputStream inputStream) {
-
+    	try {
+    		planCache.read(inputStream);
+    		cacheLoaded = true;
+    	} catch (IOException e) {
+    		System.err.println("Ignoring saved plan cache: " + e.getMessage());
+    	}
     }
 
     /**
@@ -92,62 +228,59 @@ public class PlannerAgent extends Agent {
      * @param startState The state which is being planned from
      * @return The plan or null if no plan is found.
      */
-    private Stack<StripsAction> AstarSearch(GameState startState) {
+    Stack<StripsAction> AstarSearch(GameState startState) {
     	
-    	PriorityQueue<GameState> openQueue = new PriorityQueue<GameState>();
+    	//cost + astarWeight * heuristic, ties to the state closer to the goal. With the relaxed plan heuristic the
+    	//default weight of 1 gives optimal plans, with several peasants a higher weight finds one much sooner
+    	OpenList openList = new OpenList(Comparator.<GameState>comparingDouble((s) -> s.getCost() + astarWeight * s.heuristic())
+    			.thenComparingDouble(GameState::heuristic));
+    	StateKeySet closedSet = new StateKeySet(GameState.keyWidth());
     	
-		Set<GameState> openSet = new HashSet<GameState>();
-    	Set<GameState> closedSet = new HashSet<GameState>();
+    	openList.add(startState);
     	
-    	openQueue.add(startState);
-		openSet.add(startState);
+    	SearchMetrics metrics = GameState.metrics;
+    	long startTime = System.nanoTime();
 		
-		while(!openQueue.isEmpty()) {
+		while(!openList.isEmpty()) {
 			
-			GameState current = openQueue.remove();
-			openSet.remove(current);
-			
-			//System.out.println("LOOK AT ME NEW ITERATION OF ASTAR" + current);
+			GameState current = openList.poll();
 			
 			if(current.isGoal()) {
+				printSearchRate(metrics.getExpanded(), startTime);
 				return current.getPlan();
 			}
 			
-			closedSet.add(current);			
+			closedSet.add(current.key());
+			metrics.expanded();
 			
-			List<GameState> children = current.generateChildren();
-
-			for(GameState child : children) {
+			//children come one at a time, a closed one is dropped on its key alone before it is even built
+			Iterator<GameState> children = current.successors((key) -> {
+				if(!closedSet.contains(key)) return false;
+				metrics.generated(1);
+				metrics.duplicate();
+				return true;
+			});
+			
+			while(children.hasNext()) {
+				GameState child = children.next();
+				metrics.generated(1);
 				
-				if(!closedSet.contains(child)){
-					
-					if(!openSet.contains(child)) {
-
-						openQueue.add(child);
-						openSet.add(child);
-						
-					} else {
-						GameState first = null;
-						
-						for(GameState possible : openSet) {
-							
-							if(possible.equals(child)) {
-								first = possible;
-							}
-						}
-						if(first.getCost() > child.getCost()) {
-							
-							openQueue.remove(first);
-							openQueue.add(child);
-							openSet.remove(first);
-							openSet.add(child);
-						}
-					}
-				}
+				GameState open = openList.get(child);
+				
+				if(open == null) openList.add(child);
+				else if(open.getCost() > child.getCost()) openList.replace(child);
+				else metrics.duplicate();
 			}
-		}	
+			metrics.listSizes(openList.size(), closedSet.size());
+		}
+		printSearchRate(metrics.getExpanded(), startTime);
     	return null;
     }
+    
+    private void printSearchRate(long expanded, long startTime) {
+    	double seconds = (System.nanoTime() - startTime) / 1e9;
+    	System.out.printf("expanded %d nodes in %.3f s (%.0f expansions/s)%n", expanded, seconds, seconds > 0 ? expanded / seconds : 0.0);
+    }
 
     /**
      * This has been provided for you. Each strips action is converted to a string with the toString method. This means
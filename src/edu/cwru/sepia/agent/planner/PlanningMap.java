@@ -0,0 +1,93 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.List;
+
+/**
+ * Everything the planner reads about the game when planning starts, from one player's point of view. In a game this
+ * is a StateViewMap around SEPIA's StateView, the benchmarks use small synthetic maps instead.
+ */
+public interface PlanningMap {
+
+	int getXExtent();
+
+	int getYExtent();
+
+	/**
+	 * @return Every gold mine and tree on the map
+	 */
+	List<Resource> getResources();
+
+	/**
+	 * @return Every unit on the map, the planning player's and everyone else's
+	 */
+	List<Unit> getUnits();
+
+	/**
+	 * @return Gold the planning player already has
+	 */
+	int getGold();
+
+	/**
+	 * @return Wood the planning player already has
+	 */
+	int getWood();
+
+	/**
+	 * @return The peasant template, or null if the player can't build peasants
+	 */
+	PeasantTemplate getPeasantTemplate();
+
+	int getSupplyCap();
+
+	int getSupplyAmount();
+
+	public static final class Resource {
+		public final int id;
+		public final int x;
+		public final int y;
+		public final boolean gold;
+		public final int amount;
+
+		public Resource(int id, int x, int y, boolean gold, int amount) {
+			this.id = id;
+			this.x = x;
+			this.y = y;
+			this.gold = gold;
+			this.amount = amount;
+		}
+	}
+
+	public static final class Unit {
+		public final int id;
+		public final int x;
+		public final int y;
+		// template name as SEPIA spells it, "TownHall" or "Peasant" for the planning player
+		public final String name;
+		// true if the planning player owns it
+		public final boolean own;
+
+		public Unit(int id, int x, int y, String name, boolean own) {
+			this.id = id;
+			this.x = x;
+			this.y = y;
+			this.name = name;
+			this.own = own;
+		}
+
+		public boolean isTownhall() {
+			return name.toLowerCase().equals("townhall");
+		}
+	}
+
+	public static final class PeasantTemplate {
+		public final int id;
+		public final int goldCost;
+		public final int foodCost;
+
+		public PeasantTemplate(int id, int goldCost, int foodCost) {
+			this.id = id;
+			this.goldCost = goldCost;
+			this.foodCost = foodCost;
+		}
+	}
+}
@@ -0,0 +1,465 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.BuildPeasant;
+import edu.cwru.sepia.agent.planner.actions.Deposit;
+import edu.cwru.sepia.agent.planner.actions.Harvest;
+import edu.cwru.sepia.agent.planner.actions.Move;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Delete relaxation heuristic for the planner (h_add to pick supporters, h_FF to count the relaxed plan).
+ *
+ * The relaxed problem is built once from the grounded Move, Harvest and Deposit actions of the map. Facts are
+ * At(location), Holding(gold), Holding(wood), Empty, Deposited(gold) and Deposited(wood), and each relaxed action keeps
+ * the preconditions and add effects of its StripsAction together with that action's getCost(). Deletes are dropped.
+ *
+ * One load of a resource is one relaxed problem. A peasant group pays for the relaxed plan of its first load from
+ * where it is standing, or for dropping off what it carries. Every load after that is a full townhall to resource and
+ * back trip, which is the relaxed plan for getting to a resource from the townhall plus the relaxed plan for getting
+ * back from that resource. Trips are taken from the cheapest resources first, but never more of them than a resource
+ * has loads left. A group action moves as many loads as there are peasants for the price of one, so the cost of all
+ * the loads is shared out over the peasants. When peasants can be built the estimate is the cheapest over how many get
+ * built, each one adding its gold to what has to be gathered and a BuildPeasant to the plan.
+ *
+ * The estimate never overestimates and never drops by more than the cost of the action taken, so A* with weight 1 and
+ * the HDA* search stay optimal.
+ *
+ * Estimates are cached per abstract state: the peasant groups, the loads still needed and the loads left in every
+ * resource. Relaxed plans are cached by their start facts, goal and which resources are not empty.
+ *
+ * Thread safe: the relaxed problem never changes once built and both caches are concurrent maps, so the HDA* workers
+ * share one instance. Two workers missing the same key both work out the same value, one of them is kept.
+ */
+public class RelaxedPlanHeuristic {
+
+	private static final int LOAD = 100;
+
+	private final int locations;
+	private final int townhall;
+
+	private final int holdGold;
+	private final int holdWood;
+	private final int empty;
+	private final int depGold;
+	private final int depWood;
+	private final int facts;
+
+	private final Map<Position, Integer> locationIndex;
+
+	private final int[] resourceLocation;
+	private final boolean[] resourceGold;
+
+	private final int maxPeasants;
+	private final int peasantGold;
+	private final double buildCost;
+
+	private final List<RelaxedAction> actions = new ArrayList<RelaxedAction>();
+	// actions by precondition fact
+	private final List<List<RelaxedAction>> consumers = new ArrayList<List<RelaxedAction>>();
+
+	private final Map<Key, Double> cache = new ConcurrentHashMap<Key, Double>();
+	// relaxed plan costs by start facts, goal and resources left, shared by every abstract state
+	private final Map<Key, Double> plans = new ConcurrentHashMap<Key, Double>();
+
+	private static class RelaxedAction {
+		final int id;
+		final int[] pre;
+		final int[] add;
+		final double cost;
+		// resource that has to have something left in it, the one harvested or moved to, -1 for none
+		final int resource;
+		// resource index a move to somewhere other than the townhall leaves from, -1 otherwise
+		final int leaves;
+
+		RelaxedAction(int id, int[] pre, int[] add, double cost, int resource, int leaves) {
+			this.id = id;
+			this.pre = pre;
+			this.add = add;
+			this.cost = cost;
+			this.resource = resource;
+			this.leaves = leaves;
+		}
+	}
+
+	/**
+	 * @param locationList Every position a peasant can be at while planning, townhall included
+	 * @param townhallPos Townhall position
+	 * @param resourcePositions Resource positions in the planner's resource order
+	 * @param resourceIds Resource ids in the planner's resource order
+	 * @param resourceGold Whether each resource is a gold mine, in the planner's resource order
+	 * @param maxPeasants Most peasants that can exist at once
+	 * @param peasantGold Gold cost of building a peasant
+	 */
+	public RelaxedPlanHeuristic(List<Position> locationList, Position townhallPos, Position[] resourcePositions,
+			int[] resourceIds, boolean[] resourceGold, int maxPeasants, int peasantGold) {
+
+		Map<Position, Integer> index = new LinkedHashMap<Position, Integer>();
+		for(Position pos : locationList) index.putIfAbsent(pos, index.size());
+		index.putIfAbsent(townhallPos, index.size());
+		for(Position pos : resourcePositions) index.putIfAbsent(pos, index.size());
+
+		this.locations = index.size();
+		this.townhall = index.get(townhallPos);
+		this.locationIndex = index;
+
+		this.holdGold = locations;
+		this.holdWood = locations + 1;
+		this.empty = locations + 2;
+		this.depGold = locations + 3;
+		this.depWood = locations + 4;
+		this.facts = locations + 5;
+
+		this.resourceLocation = new int[resourcePositions.length];
+		for(int r = 0; r < resourcePositions.length; r++) resourceLocation[r] = index.get(resourcePositions[r]);
+		this.resourceGold = resourceGold;
+		this.maxPeasants = Math.max(1, maxPeasants);
+		this.peasantGold = peasantGold;
+		this.buildCost = new BuildPeasant(0).getCost();
+
+		for(int f = 0; f < facts; f++) consumers.add(new ArrayList<RelaxedAction>());
+
+		Position[] positions = index.keySet().toArray(new Position[0]);
+
+		int[] resourceAt = new int[locations];
+		Arrays.fill(resourceAt, -1);
+		for(int r = 0; r < resourcePositions.length; r++) resourceAt[resourceLocation[r]] = r;
+
+		//same moves as generateChildren: to the townhall, or empty handed to a resource that isn't used up. Nobody walks
+		//off a resource that still has something in it unless they're going to the townhall, otherwise chained moves
+		//would undercut direct ones
+		for(int from = 0; from < locations; from++) {
+			for(int to = 0; to < locations; to++) {
+				if(from == to || to != townhall && resourceAt[to] < 0) continue;
+
+				Move move = new Move(0, positions[from], positions[to]);
+				if(to == townhall) addAction(new int[] { from }, new int[] { to }, move.getCost(), -1, -1);
+				else addAction(new int[] { from, empty }, new int[] { to }, move.getCost(), resourceAt[to], resourceAt[from]);
+			}
+		}
+
+		for(int r = 0; r < resourcePositions.length; r++) {
+			Harvest harvest = new Harvest(0, resourcePositions[r], resourceIds[r]);
+			addAction(new int[] { resourceLocation[r], empty }, new int[] { resourceGold[r] ? holdGold : holdWood }, harvest.getCost(), r, -1);
+		}
+
+		double deposit = new Deposit(0).getCost();
+		addAction(new int[] { townhall, holdGold }, new int[] { depGold, empty }, deposit, -1, -1);
+		addAction(new int[] { townhall, holdWood }, new int[] { depWood, empty }, deposit, -1, -1);
+	}
+
+	private void addAction(int[] pre, int[] add, double cost, int resource, int leaves) {
+		RelaxedAction action = new RelaxedAction(actions.size(), pre, add, Math.max(0, cost), resource, leaves);
+		actions.add(action);
+		for(int fact : pre) consumers.get(fact).add(action);
+	}
+
+	/**
+	 * @param pos A position
+	 * @return Its location index, or -1 if peasants never stand there
+	 */
+	public int location(Position pos) {
+		Integer i = locationIndex.get(pos);
+		return i == null ? -1 : i;
+	}
+
+	/**
+	 * Estimates the remaining cost of a state.
+	 *
+	 * @param groupLocation Location index of every peasant group
+	 * @param groupCargo 0 for empty handed, 1 for gold, 2 for wood, for every group
+	 * @param groupSize Number of peasants in every group
+	 * @param goldNeeded Gold still to be deposited, cargo already carried not taken off, negative for a surplus
+	 * @param woodNeeded Wood still to be deposited, cargo already carried not taken off
+	 * @param resourceLoads Loads of 100 (rounded up) left in each resource, in the planner's resource order
+	 * @return Estimated cost to reach a goal
+	 */
+	public double estimate(int[] groupLocation, int[] groupCargo, int[] groupSize, int goldNeeded, int woodNeeded, int[] resourceLoads) {
+		long[] groups = new long[groupLocation.length];
+		for(int g = 0; g < groups.length; g++) {
+			groups[g] = (long) groupLocation[g] << 32 | groupCargo[g] << 16 | groupSize[g];
+		}
+		Arrays.sort(groups);
+
+		long[] words = Arrays.copyOf(groups, groups.length + 2 + resourceLoads.length);
+		words[groups.length] = goldNeeded;
+		words[groups.length + 1] = loads(woodNeeded);
+		for(int r = 0; r < resourceLoads.length; r++) words[groups.length + 2 + r] = resourceLoads[r];
+		Key key = new Key(words);
+
+		Double known = cache.get(key);
+		if(known != null) return known;
+
+		int peasants = 0;
+		for(int size : groupSize) peasants += size;
+
+		//surplus gold pays for peasants first, anything over that has to be gathered on top of the goal
+		double estimate = Double.POSITIVE_INFINITY;
+		for(int built = 0; peasants + built <= Math.max(peasants, maxPeasants); built++) {
+			double cost = built * buildCost + compute(groupLocation, groupCargo, groupSize, loads(goldNeeded + built * peasantGold),
+					loads(woodNeeded), resourceLoads, peasants + built);
+			estimate = Math.min(estimate, cost);
+		}
+		cache.put(key, estimate);
+		return estimate;
+	}
+
+	private static int loads(int amount) {
+		return (Math.max(0, amount) + LOAD - 1) / LOAD;
+	}
+
+	/**
+	 * Every load is costed on its own and the total is split over the peasants. An action moves at most one load per
+	 * peasant, so the estimate never drops by more than the action costs.
+	 */
+	private double compute(int[] groupLocation, int[] groupCargo, int[] groupSize, int goldLoads, int woodLoads, int[] resourceLoads, int peasants) {
+		// loads still wanted, gold then wood
+		int[] wanted = new int[] { goldLoads, woodLoads };
+		int[] left = resourceLoads.clone();
+
+		boolean[] resourceLeft = new boolean[left.length];
+		for(int r = 0; r < left.length; r++) resourceLeft[r] = left[r] > 0;
+
+		double total = 0;
+
+		//cargo already in hand only has to be dropped off, and only if that kind is still needed
+		for(int g = 0; g < groupLocation.length; g++) {
+			if(groupCargo[g] == 0) continue;
+
+			int kind = groupCargo[g] - 1;
+			int loads = Math.min(groupSize[g], wanted[kind]);
+			if(loads == 0) continue;
+
+			total += loads * relaxedPlanCost(new int[] { groupLocation[g], kind == 0 ? holdGold : holdWood }, kind == 0 ? depGold : depWood, resourceLeft);
+			wanted[kind] -= loads;
+		}
+
+		//empty handed groups start their first load from wherever they are, if that beats the dearest trip from the
+		//townhall it would replace
+		for(int g = 0; g < groupLocation.length; g++) {
+			if(groupCargo[g] != 0) continue;
+
+			int best = -1;
+			int bestLoads = 0;
+			double bestTrip = 0;
+			double bestSaving = 0;
+
+			for(int r = 0; r < left.length; r++) {
+				int loads = Math.min(groupSize[g], Math.min(wanted[kind(r)], left[r]));
+				if(loads == 0) continue;
+
+				double trip = trip(groupLocation[g], r, resourceLeft);
+				double saving = trip - marginalTrip(kind(r), wanted[kind(r)], left, resourceLeft);
+				if(saving < bestSaving) {
+					best = r;
+					bestLoads = loads;
+					bestTrip = trip;
+					bestSaving = saving;
+				}
+			}
+			if(best < 0) continue;
+
+			total += bestLoads * bestTrip;
+			wanted[kind(best)] -= bestLoads;
+			left[best] -= bestLoads;
+		}
+
+		//everything else is a full trip from the townhall, cheapest resources first until they run out
+		for(int kind = 0; kind < 2; kind++) {
+			int trips = wanted[kind];
+
+			for(int r : tripOrder(kind, left, resourceLeft)) {
+				if(trips == 0) break;
+
+				int loads = Math.min(trips, left[r]);
+				total += loads * trip(townhall, r, resourceLeft);
+				trips -= loads;
+			}
+			if(trips > 0) return Double.POSITIVE_INFINITY;
+		}
+
+		//a group action carries a load per peasant for the cost of one
+		return total / peasants;
+	}
+
+	/**
+	 * @return Cost of the last of the wanted loads if they were all full trips from the townhall, cheapest first
+	 */
+	private double marginalTrip(int kind, int wanted, int[] left, boolean[] resourceLeft) {
+		List<Integer> order = tripOrder(kind, left, resourceLeft);
+
+		for(int r : order) {
+			wanted -= left[r];
+			if(wanted <= 0) return trip(townhall, r, resourceLeft);
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return Resources of a kind with loads left, cheapest trip from the townhall first
+	 */
+	private List<Integer> tripOrder(int kind, int[] left, boolean[] resourceLeft) {
+		List<Integer> order = new ArrayList<Integer>();
+		for(int r = 0; r < left.length; r++) {
+			if(left[r] > 0 && kind(r) == kind) order.add(r);
+		}
+		order.sort((x, y) -> Double.compare(trip(townhall, x, resourceLeft), trip(townhall, y, resourceLeft)));
+		return order;
+	}
+
+	private int kind(int resource) {
+		return resourceGold[resource] ? 0 : 1;
+	}
+
+	/**
+	 * Cost of bringing one load from a resource to the townhall, starting empty handed at a location. The trip is split
+	 * at the resource, the relaxed plan there and the relaxed plan back, so being at the townhall already can't let it
+	 * skip the walk back.
+	 */
+	private double trip(int from, int resource, boolean[] resourceLeft) {
+		boolean gold = resourceGold[resource];
+
+		double there = relaxedPlanCost(new int[] { from, empty }, gold ? holdGold : holdWood, resourceLeft, resource);
+		double back = relaxedPlanCost(new int[] { resourceLocation[resource], gold ? holdGold : holdWood }, gold ? depGold : depWood, resourceLeft);
+
+		return there + back;
+	}
+
+	private double relaxedPlanCost(int[] start, int goal, boolean[] resourceLeft) {
+		return relaxedPlanCost(start, goal, resourceLeft, -1);
+	}
+
+	/**
+	 * h_FF: cost of the relaxed plan found by following the h_add best supporters back from the goal.
+	 *
+	 * @param only If not -1, the only resource that may be harvested or moved to
+	 */
+	private double relaxedPlanCost(int[] start, int goal, boolean[] resourceLeft, int only) {
+		long[] words = new long[4 + (resourceLeft.length + 63) / 64];
+		words[0] = start[0];
+		words[1] = start[1];
+		words[2] = goal;
+		words[3] = only;
+		for(int r = 0; r < resourceLeft.length; r++) {
+			if(resourceLeft[r]) words[4 + r / 64] |= 1L << (r % 64);
+		}
+		Key key = new Key(words);
+
+		Double known = plans.get(key);
+		if(known != null) return known;
+
+		double cost = extractPlan(start, goal, resourceLeft, only);
+		plans.put(key, cost);
+		return cost;
+	}
+
+	private double extractPlan(int[] start, int goal, boolean[] resourceLeft, int only) {
+		Relaxation relaxation = relax(start, (a) -> (a.leaves < 0 || !resourceLeft[a.leaves])
+				&& (a.resource < 0 || resourceLeft[a.resource] && (only < 0 || a.resource == only)));
+		if(relaxation.cost[goal] == Double.POSITIVE_INFINITY) return Double.POSITIVE_INFINITY;
+
+		double cost = 0;
+		boolean[] counted = new boolean[actions.size()];
+		boolean[] visited = new boolean[facts];
+
+		List<Integer> pending = new ArrayList<Integer>();
+		pending.add(goal);
+
+		while(!pending.isEmpty()) {
+			int fact = pending.remove(pending.size() - 1);
+			if(visited[fact]) continue;
+			visited[fact] = true;
+
+			int supporter = relaxation.supporter[fact];
+			if(supporter < 0 || counted[supporter]) continue;
+
+			counted[supporter] = true;
+			RelaxedAction action = actions.get(supporter);
+			cost += action.cost;
+			for(int pre : action.pre) pending.add(pre);
+		}
+		return cost;
+	}
+
+	private interface Allowed {
+		boolean test(RelaxedAction action);
+	}
+
+	private static class Relaxation {
+		double[] cost;
+		int[] supporter;
+	}
+
+	/**
+	 * h_add over the relaxed actions, a Dijkstra over facts where an action fires once all its preconditions are in.
+	 */
+	private Relaxation relax(int[] start, Allowed allowed) {
+		Relaxation relaxation = new Relaxation();
+		relaxation.cost = new double[facts];
+		relaxation.supporter = new int[facts];
+		Arrays.fill(relaxation.cost, Double.POSITIVE_INFINITY);
+		Arrays.fill(relaxation.supporter, -1);
+
+		int[] missing = new int[actions.size()];
+		for(int a = 0; a < actions.size(); a++) missing[a] = actions.get(a).pre.length;
+
+		PriorityQueue<double[]> queue = new PriorityQueue<double[]>((x, y) -> Double.compare(x[0], y[0]));
+		for(int fact : start) {
+			relaxation.cost[fact] = 0;
+			queue.add(new double[] { 0, fact });
+		}
+
+		boolean[] done = new boolean[facts];
+
+		while(!queue.isEmpty()) {
+			double[] entry = queue.poll();
+			int fact = (int) entry[1];
+			if(done[fact]) continue;
+			done[fact] = true;
+
+			for(RelaxedAction action : consumers.get(fact)) {
+				int a = action.id;
+				if(--missing[a] > 0) continue;
+				if(allowed != null && !allowed.test(action)) continue;
+
+				double cost = action.cost;
+				for(int pre : action.pre) cost += relaxation.cost[pre];
+
+				for(int add : action.add) {
+					if(cost < relaxation.cost[add]) {
+						relaxation.cost[add] = cost;
+						relaxation.supporter[add] = a;
+						queue.add(new double[] { cost, add });
+					}
+				}
+			}
+		}
+		return relaxation;
+	}
+
+	private static class Key {
+		private final long[] words;
+		private final int hash;
+
+		Key(long[] words) {
+			this.words = words;
+			this.hash = Arrays.hashCode(words);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(words, ((Key) o).words);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
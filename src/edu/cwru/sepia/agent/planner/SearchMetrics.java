@@ -0,0 +1,162 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Stack;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timers for one planning run. The searches count expansions, generated children and pruned
+ * duplicates, and sample the size of their open and closed lists after every expansion. GameState times every
+ * heuristic it computes. Everything is safe to update from the HDA* workers.
+ *
+ * For HDA* the peak list sizes are the per worker peaks added up, which can be a bit more than the real peak, and the
+ * heuristic time is added up over the workers, so it can be more than the search time.
+ */
+public class SearchMetrics {
+
+	private final LongAdder expanded = new LongAdder();
+	private final LongAdder generated = new LongAdder();
+	private final LongAdder duplicates = new LongAdder();
+
+	private final LongAccumulator peakOpen = new LongAccumulator(Math::max, 0);
+	private final LongAccumulator peakClosed = new LongAccumulator(Math::max, 0);
+
+	private final LongAdder heuristicCalls = new LongAdder();
+	private final LongAdder heuristicNanos = new LongAdder();
+
+	// filled in by the PlannerAgent once planning is over
+	private String mode = "none";
+	private long searchNanos = 0;
+	private long planNanos = 0;
+	private int planLength = -1;
+	private double planCost = 0;
+	// the plan costs at most this many times the optimal cost, NaN if the search gives no bound
+	private double bound = Double.NaN;
+
+	public void expanded() {
+		expanded.increment();
+	}
+
+	public void generated(int children) {
+		generated.add(children);
+	}
+
+	public void duplicate() {
+		duplicates.increment();
+	}
+
+	/**
+	 * @param open Open list size right now
+	 * @param closed Closed list size right now
+	 */
+	public void listSizes(long open, long closed) {
+		peakOpen.accumulate(open);
+		peakClosed.accumulate(closed);
+	}
+
+	/**
+	 * @param nanos Time it took to compute one heuristic value
+	 */
+	public void heuristic(long nanos) {
+		heuristicCalls.increment();
+		heuristicNanos.add(nanos);
+	}
+
+	/**
+	 * Records how planning went.
+	 *
+	 * @param mode The search that made the plan, or "cache" if it was reused
+	 * @param plan The plan, null if none was found
+	 * @param bound How many times the optimal cost the plan costs at most with an admissible heuristic, NaN if unknown
+	 * @param searchNanos Time spent in the search
+	 * @param planNanos Time from the start of planning to the plan, setup included
+	 */
+	public void finish(String mode, Stack<StripsAction> plan, double bound, long searchNanos, long planNanos) {
+		this.mode = mode;
+		this.bound = bound;
+		this.searchNanos = searchNanos;
+		this.planNanos = planNanos;
+
+		if(plan != null) {
+			this.planLength = plan.size();
+			this.planCost = 0;
+			for(StripsAction action : plan) planCost += action.getCost();
+		}
+	}
+
+	public long getExpanded() { return expanded.sum(); }
+	public long getGenerated() { return generated.sum(); }
+	public long getDuplicates() { return duplicates.sum(); }
+	public long getPeakOpen() { return peakOpen.get(); }
+	public long getPeakClosed() { return peakClosed.get(); }
+	public long getHeuristicCalls() { return heuristicCalls.sum(); }
+	public long getHeuristicNanos() { return heuristicNanos.sum(); }
+	public long getSearchNanos() { return searchNanos; }
+	public long getPlanNanos() { return planNanos; }
+	public int getPlanLength() { return planLength; }
+	public double getPlanCost() { return planCost; }
+	public double getBound() { return bound; }
+	public String getMode() { return mode; }
+
+	/**
+	 * @return Children generated per expanded state, 0 before anything is expanded
+	 */
+	public double branchingFactor() {
+		long expanded = getExpanded();
+		return expanded == 0 ? 0 : (double) getGenerated() / expanded;
+	}
+
+	/**
+	 * @return The metrics as one flat JSON object, times in milliseconds
+	 */
+	public String toJson() {
+		return String.format(Locale.ROOT, "{%n"
+				+ "  \"mode\": \"%s\",%n"
+				+ "  \"expanded\": %d,%n"
+				+ "  \"generated\": %d,%n"
+				+ "  \"duplicates\": %d,%n"
+				+ "  \"peakOpen\": %d,%n"
+				+ "  \"peakClosed\": %d,%n"
+				+ "  \"branchingFactor\": %.3f,%n"
+				+ "  \"heuristicCalls\": %d,%n"
+				+ "  \"heuristicMs\": %.3f,%n"
+				+ "  \"searchMs\": %.3f,%n"
+				+ "  \"planMs\": %.3f,%n"
+				+ "  \"planLength\": %d,%n"
+				+ "  \"planCost\": %.1f,%n"
+				+ "  \"bound\": %s%n"
+				+ "}%n",
+				mode, getExpanded(), getGenerated(), getDuplicates(), getPeakOpen(), getPeakClosed(), branchingFactor(),
+				getHeuristicCalls(), getHeuristicNanos() / 1e6, searchNanos / 1e6, planNanos / 1e6, planLength, planCost,
+				Double.isNaN(bound) ? "null" : String.format(Locale.ROOT, "%.3f", bound));
+	}
+
+	/**
+	 * Writes toJson() to a file, making its directory if needed.
+	 */
+	public void save(File file) {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if(dir != null) dir.mkdirs();
+
+		try(PrintWriter out = new PrintWriter(file)) {
+			out.print(toJson());
+		} catch (FileNotFoundException e) {
+			System.err.println("Could not save search metrics " + file + ": " + e.getMessage());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "%s: %d expanded, %d generated, %d duplicates, peak open %d, peak closed %d, "
+				+ "branching %.2f, heuristic %.1f ms, search %.1f ms, planning %.1f ms%s",
+				mode, getExpanded(), getGenerated(), getDuplicates(), getPeakOpen(), getPeakClosed(), branchingFactor(),
+				getHeuristicNanos() / 1e6, searchNanos / 1e6, planNanos / 1e6,
+				Double.isNaN(bound) ? "" : String.format(Locale.ROOT, ", at most %.2f times optimal", bound));
+	}
+}
@@ -0,0 +1,113 @@
+package edu.cwru.sepia.agent.planner;
+
+/**
+ * Open-addressing hash set of packed GameState keys (see GameState.key()).
+ *
+ * Every key in a search has the same number of longs, so the keys are stored back to back in one long array instead
+ * of as objects. The closed set no longer holds on to whole GameStates either, which lets expanded states that are not
+ * a parent of anything open be collected.
+ *
+ * Linear probing, power of two capacity, grows at half full. A stored hash of 0 marks an empty slot.
+ */
+public class StateKeySet {
+
+	private final int width;
+
+	private long[] keys;
+	private int[] hashes;
+	private int mask;
+	private int size = 0;
+
+	/**
+	 * @param width Number of longs in every key added to this set
+	 */
+	public StateKeySet(int width) {
+		this(width, 1 << 10);
+	}
+
+	public StateKeySet(int width, int capacity) {
+		this.width = width;
+
+		int cap = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+		this.keys = new long[cap * width];
+		this.hashes = new int[cap];
+		this.mask = cap - 1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(long[] key) {
+		return find(key, hash(key)) >= 0;
+	}
+
+	/**
+	 * @param key Key to add, must be exactly width longs
+	 * @return True if the key was not already in the set
+	 */
+	public boolean add(long[] key) {
+		int h = hash(key);
+		if(find(key, h) >= 0) return false;
+
+		if(2 * (size + 1) > hashes.length) grow();
+
+		insert(key, 0, h);
+		size++;
+		return true;
+	}
+
+	private int find(long[] key, int h) {
+		for(int slot = h & mask; hashes[slot] != 0; slot = (slot + 1) & mask) {
+			if(hashes[slot] == h && matches(slot, key)) return slot;
+		}
+		return -1;
+	}
+
+	private boolean matches(int slot, long[] key) {
+		int base = slot * width;
+		for(int i = 0; i < width; i++) {
+			if(keys[base + i] != key[i]) return false;
+		}
+		return true;
+	}
+
+	private void insert(long[] src, int offset, int h) {
+		int slot = h & mask;
+		while(hashes[slot] != 0) slot = (slot + 1) & mask;
+
+		hashes[slot] = h;
+		System.arraycopy(src, offset, keys, slot * width, width);
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldHashes = hashes;
+
+		keys = new long[oldKeys.length * 2];
+		hashes = new int[oldHashes.length * 2];
+		mask = hashes.length - 1;
+
+		for(int slot = 0; slot < oldHashes.length; slot++) {
+			if(oldHashes[slot] != 0) insert(oldKeys, slot * width, oldHashes[slot]);
+		}
+	}
+
+	/**
+	 * Hash of a packed key. Never returns 0 since the set uses 0 for empty slots.
+	 *
+	 * @param key Packed key
+	 * @return Well mixed hash of every word in the key
+	 */
+	public static int hash(long[] key) {
+		long h = 0x9E3779B97F4A7C15L;
+
+		for(long word : key) {
+			h ^= word;
+			h *= 0xBF58476D1CE4E5B9L;
+			h ^= h >>> 31;
+		}
+		int hash = (int) (h ^ (h >>> 32));
+		return hash == 0 ? 1 : hash;
+	}
+}
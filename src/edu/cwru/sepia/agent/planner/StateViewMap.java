@@ -0,0 +1,84 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+import edu.cwru.sepia.environment.model.state.ResourceType;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Template;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The planner's view of a SEPIA game, read from the StateView once when it is made.
+ */
+public class StateViewMap implements PlanningMap {
+
+	private final int width;
+	private final int height;
+
+	private final List<Resource> resources = new ArrayList<Resource>();
+	private final List<Unit> units = new ArrayList<Unit>();
+
+	private final int gold;
+	private final int wood;
+
+	private final PeasantTemplate peasantTemplate;
+	private final int supplyCap;
+	private final int supplyAmount;
+
+	/**
+	 * @param state The current stateview
+	 * @param playernum The planning player
+	 */
+	public StateViewMap(State.StateView state, int playernum) {
+		this.width = state.getXExtent();
+		this.height = state.getYExtent();
+
+		for(ResourceNode.ResourceView r : state.getAllResourceNodes()) {
+			boolean gold = r.getType().name().toLowerCase().equals("gold_mine");
+			resources.add(new Resource(r.getID(), r.getXPosition(), r.getYPosition(), gold, r.getAmountRemaining()));
+		}
+
+		Set<Integer> own = new HashSet<Integer>(state.getUnitIds(playernum));
+		for(edu.cwru.sepia.environment.model.state.Unit.UnitView u : state.getAllUnits()) {
+			units.add(new Unit(u.getID(), u.getXPosition(), u.getYPosition(), u.getTemplateView().getName(), own.contains(u.getID())));
+		}
+
+		this.gold = state.getResourceAmount(playernum, ResourceType.GOLD);
+		this.wood = state.getResourceAmount(playernum, ResourceType.WOOD);
+
+		Template.TemplateView peasant = state.getTemplate(playernum, "Peasant");
+		this.peasantTemplate = peasant == null ? null : new PeasantTemplate(peasant.getID(), peasant.getGoldCost(), peasant.getFoodCost());
+		this.supplyCap = state.getSupplyCap(playernum);
+		this.supplyAmount = state.getSupplyAmount(playernum);
+	}
+
+	@Override
+	public int getXExtent() { return width; }
+
+	@Override
+	public int getYExtent() { return height; }
+
+	@Override
+	public List<Resource> getResources() { return resources; }
+
+	@Override
+	public List<Unit> getUnits() { return units; }
+
+	@Override
+	public int getGold() { return gold; }
+
+	@Override
+	public int getWood() { return wood; }
+
+	@Override
+	public PeasantTemplate getPeasantTemplate() { return peasantTemplate; }
+
+	@Override
+	public int getSupplyCap() { return supplyCap; }
+
+	@Override
+	public int getSupplyAmount() { return supplyAmount; }
+}
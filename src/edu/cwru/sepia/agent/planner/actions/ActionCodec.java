@@ -0,0 +1,128 @@
+package edu.cwru.sepia.agent.planner.actions;
+
+import edu.cwru.sepia.agent.planner.Position;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary form of the STRIPS actions, used by the plan cache. Every action is a tag byte followed by its fields: plan
+ * peasant ids and map coordinates as shorts, resource ids as ints, and peasant lists as a count byte and the ids.
+ */
+public class ActionCodec {
+
+	private static final byte MOVE = 1;
+	private static final byte MOVE_K = 2;
+	private static final byte HARVEST = 3;
+	private static final byte HARVEST_K = 4;
+	private static final byte DEPOSIT = 5;
+	private static final byte DEPOSIT_K = 6;
+	private static final byte BUILD_PEASANT = 7;
+
+	/**
+	 * @param out Where to write
+	 * @param action Action to write
+	 * @throws IOException if writing fails
+	 * @throws IllegalArgumentException if the action has no binary form
+	 */
+	public static void write(DataOutput out, StripsAction action) throws IOException {
+		if(action instanceof Move) {
+			Move move = (Move) action;
+			out.writeByte(MOVE);
+			out.writeShort(move.peasantId);
+			writePosition(out, move.bob);
+			writePosition(out, move.pos);
+		}
+		else if(action instanceof MoveK) {
+			MoveK move = (MoveK) action;
+			out.writeByte(MOVE_K);
+			writeIds(out, move.peasantIds);
+			writePosition(out, move.from);
+			writePosition(out, move.pos);
+		}
+		else if(action instanceof Harvest) {
+			Harvest harvest = (Harvest) action;
+			out.writeByte(HARVEST);
+			out.writeShort(harvest.peasantId);
+			writePosition(out, harvest.resPos);
+			out.writeInt(harvest.resourceId);
+		}
+		else if(action instanceof HarvestK) {
+			HarvestK harvest = (HarvestK) action;
+			out.writeByte(HARVEST_K);
+			writeIds(out, harvest.peasantIds);
+			writePosition(out, harvest.resPos);
+			out.writeInt(harvest.resourceId);
+		}
+		else if(action instanceof Deposit) {
+			out.writeByte(DEPOSIT);
+			out.writeShort(((Deposit) action).peasantId);
+		}
+		else if(action instanceof DepositK) {
+			out.writeByte(DEPOSIT_K);
+			writeIds(out, ((DepositK) action).peasantIds);
+		}
+		else if(action instanceof BuildPeasant) {
+			out.writeByte(BUILD_PEASANT);
+			out.writeShort(((BuildPeasant) action).newPeasantId);
+		}
+		else {
+			throw new IllegalArgumentException("No binary form for " + action);
+		}
+	}
+
+	/**
+	 * @param in Where to read from
+	 * @return The next action
+	 * @throws IOException if reading fails or the tag is unknown
+	 */
+	public static StripsAction read(DataInput in) throws IOException {
+		byte tag = in.readByte();
+
+		switch(tag) {
+		case MOVE:
+			return new Move(in.readShort(), readPosition(in), readPosition(in));
+		case MOVE_K:
+			return new MoveK(readIds(in), readPosition(in), readPosition(in));
+		case HARVEST:
+			return new Harvest(in.readShort(), readPosition(in), in.readInt());
+		case HARVEST_K:
+			return new HarvestK(readIds(in), readPosition(in), in.readInt());
+		case DEPOSIT:
+			return new Deposit(in.readShort());
+		case DEPOSIT_K:
+			return new DepositK(readIds(in));
+		case BUILD_PEASANT:
+			return new BuildPeasant(in.readShort());
+		default:
+			throw new IOException("Unknown action tag " + tag);
+		}
+	}
+
+	private static void writePosition(DataOutput out, Position pos) throws IOException {
+		out.writeShort(pos.x);
+		out.writeShort(pos.y);
+	}
+
+	private static Position readPosition(DataInput in) throws IOException {
+		int x = in.readShort();
+		int y = in.readShort();
+		return new Position(x, y);
+	}
+
+	private static void writeIds(DataOutput out, List<Integer> ids) throws IOException {
+		out.writeByte(ids.size());
+		for(int id : ids) out.writeShort(id);
+	}
+
+	private static List<Integer> readIds(DataInput in) throws IOException {
+		int count = in.readUnsignedByte();
+
+		List<Integer> ids = new ArrayList<Integer>(count);
+		for(int i = 0; i < count; i++) ids.add((int) in.readShort());
+		return ids;
+	}
+}
@@ -0,0 +1,55 @@
+package edu.cwru.sepia.agent.planner.actions;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.agent.planner.GameState;
+import edu.cwru.sepia.util.Direction;
+
+/**
+ * The townhall trains a new peasant. The new peasant gets the next plan id and starts at the townhall.
+ */
+public class BuildPeasant implements StripsAction {
+
+	int newPeasantId;
+	
+	public BuildPeasant(int newPeasantId) {
+		this.newPeasantId = newPeasantId;
+	}
+	
+	// building allowed, enough gold & food left for another peasant
+	@Override
+	public boolean preconditionsMet(GameState state) {
+		return state.canBuildPeasant() && state.peasantCount() + 1 == newPeasantId;
+	}
+
+	@Override
+	public GameState apply(GameState state) {
+		GameState newState = new GameState(state, this);
+		
+		changes(newState);
+		
+		return newState;
+	}
+	
+	@Override
+	public void changes(StateChanges state) {
+		state.buildPeasant();
+	}
+
+	/**
+	 * @param id The townhall id
+	 * @param dir Unused
+	 */
+	@Override
+	public Action createSepia(int id, Direction dir) {
+		return Action.createPrimitiveProduction(id, GameState.peasantTemplateId);
+	}
+	
+	public int getNewPeasantId() {
+		return newPeasantId;
+	}
+	
+	@Override
+	public String toString() {
+		return "BuildPeasant(" + newPeasantId + ")";
+	}
+}
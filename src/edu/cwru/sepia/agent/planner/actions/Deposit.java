@@ -5,32 +5,38 @@ import edu.cwru.sepia.agent.planner.GameState;
 import edu.cwru.sepia.agent.planner.Position;
 import edu.cwru.sepia.util.Direction;
 
+import java.util.Collections;
+import java.util.List;
+
 public class Deposit implements StripsAction {
 
-	Position bobPos;
-	Position townhallPos = GameState.townhallPos;
-	boolean holdingResource;
+	int peasantId;
 	
-	public Deposit(Position bobPos, boolean loaded) {
-		this.bobPos = bobPos;
-		this.holdingResource = loaded;
+	public Deposit(int peasantId) {
+		this.peasantId = peasantId;
 	}
 	
+	// peasant at the townhall & holding something
 	@Override
 	public boolean preconditionsMet(GameState state) {
-		return state.bobPos().equals(townhallPos) && holdingResource;
+		return state.hasPeasant(peasantId) && state.peasantPos(peasantId).equals(GameState.townhallPos) && state.peasantHolding(peasantId);
 	}
 
 	@Override
 	public GameState apply(GameState state) {
-		GameState newState = new GameState(state);
+		GameState newState = new GameState(state, this);
 		
-		newState.deposit();
+		changes(newState);
 		
 		//System.out.println("applied deposit");
 		
 		return newState;
 	}
+	
+	@Override
+	public void changes(StateChanges state) {
+		state.deposit(peasantId);
+	}
 
 	@Override
 	public Action createSepia(int id, Direction dir) {
@@ -40,11 +46,21 @@ public class Deposit implements StripsAction {
 
 	@Override
 	public Position targetPos() {
-		return townhallPos;
+		return GameState.townhallPos;
 	}
 	
 	@Override
 	public boolean directed() {
 		return true;
 	}
+	
+	@Override
+	public List<Integer> getPeasantIds() {
+		return Collections.singletonList(peasantId);
+	}
+	
+	@Override
+	public String toString() {
+		return "Deposit(" + peasantId + ")";
+	}
 }
@@ -0,0 +1,76 @@
+package edu.cwru.sepia.agent.planner.actions;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.agent.planner.GameState;
+import edu.cwru.sepia.agent.planner.Position;
+import edu.cwru.sepia.util.Direction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * k peasants at the townhall drop off their cargo in the same turn.
+ */
+public class DepositK implements StripsAction {
+
+	List<Integer> peasantIds;
+	
+	public DepositK(List<Integer> peasantIds) {
+		this.peasantIds = peasantIds;
+	}
+	
+	// every peasant at the townhall & holding something
+	@Override
+	public boolean preconditionsMet(GameState state) {
+		for(int id : peasantIds) {
+			if(!state.hasPeasant(id) || !state.peasantPos(id).equals(GameState.townhallPos) || !state.peasantHolding(id)) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public GameState apply(GameState state) {
+		GameState newState = new GameState(state, this);
+		
+		changes(newState);
+		
+		return newState;
+	}
+	
+	@Override
+	public void changes(StateChanges state) {
+		for(int id : peasantIds) state.deposit(id);
+	}
+
+	@Override
+	public Action createSepia(int id, Direction dir) {
+		return Action.createPrimitiveDeposit(id, dir);
+	}
+
+	@Override
+	public Position targetPos() {
+		return GameState.townhallPos;
+	}
+	
+	@Override
+	public boolean directed() {
+		return true;
+	}
+	
+	@Override
+	public List<Integer> getPeasantIds() {
+		return peasantIds;
+	}
+	
+	@Override
+	public List<StripsAction> split() {
+		List<StripsAction> parts = new ArrayList<StripsAction>();
+		for(int id : peasantIds) parts.add(new Deposit(id));
+		return parts;
+	}
+	
+	@Override
+	public String toString() {
+		return "DepositK(" + peasantIds + ")";
+	}
+}
@@ -5,40 +5,46 @@ import edu.cwru.sepia.agent.planner.GameState;
 import edu.cwru.sepia.agent.planner.Position;
 import edu.cwru.sepia.util.Direction;
 
+import java.util.Collections;
+import java.util.List;
+
 public class Harvest implements StripsAction {
 	
+	int peasantId;
 	int resourceId;
 	
-	Position bobPos;
 	Position resPos;
-	
-	boolean holdingResource;
-	boolean empty;
 
-	public Harvest(Position bobPos, Position resPos, int id, boolean holdingResource, boolean empty) {
-		this.bobPos = bobPos;
+	public Harvest(int peasantId, Position resPos, int id) {
+		this.peasantId = peasantId;
 		this.resPos = resPos;
 		this.resourceId = id;
-		this.holdingResource = holdingResource;
-		this.empty = empty;
 	}
 	
-	// resource is not empty & peasant does not have it
+	// peasant at the resource, resource is not empty & peasant does not have it
 	@Override
 	public boolean preconditionsMet(GameState state) {
-		return bobPos.equals(resPos) && !holdingResource && !empty;
+		return state.hasPeasant(peasantId)
+				&& state.peasantPos(peasantId).equals(resPos)
+				&& !state.peasantHolding(peasantId)
+				&& state.resourceAmount(resourceId) > 0;
 	}
 
 	@Override
 	public GameState apply(GameState state) {
-		GameState newState = new GameState(state);
+		GameState newState = new GameState(state, this);
 		
-		newState.harvest(resourceId);
+		changes(newState);
 		
 		//System.out.println("applied harvest at " + resPos.x + ", " + resPos.y);
 		
 		return newState;
 	}
+	
+	@Override
+	public void changes(StateChanges state) {
+		state.harvest(peasantId, resourceId);
+	}
 
 	@Override
 	public Action createSepia(int id, Direction dir) {
@@ -55,4 +61,19 @@ public class Harvest implements StripsAction {
 	public boolean directed() {
 		return true;
 	}
+	
+	@Override
+	public List<Integer> getPeasantIds() {
+		return Collections.singletonList(peasantId);
+	}
+	
+	@Override
+	public int getResourceId() {
+		return resourceId;
+	}
+	
+	@Override
+	public String toString() {
+		return "Harvest(" + peasantId + ", " + resourceId + ")";
+	}
 }
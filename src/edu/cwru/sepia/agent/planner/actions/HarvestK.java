@@ -0,0 +1,87 @@
+package edu.cwru.sepia.agent.planner.actions;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.agent.planner.GameState;
+import edu.cwru.sepia.agent.planner.Position;
+import edu.cwru.sepia.util.Direction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * k peasants at the same resource gather from it in the same turn. Each takes up to 100, in id order, until the
+ * resource runs out.
+ */
+public class HarvestK implements StripsAction {
+	
+	List<Integer> peasantIds;
+	int resourceId;
+	
+	Position resPos;
+
+	public HarvestK(List<Integer> peasantIds, Position resPos, int id) {
+		this.peasantIds = peasantIds;
+		this.resPos = resPos;
+		this.resourceId = id;
+	}
+	
+	// every peasant at the resource & empty handed, resource has enough left for all of them
+	@Override
+	public boolean preconditionsMet(GameState state) {
+		for(int id : peasantIds) {
+			if(!state.hasPeasant(id) || !state.peasantPos(id).equals(resPos) || state.peasantHolding(id)) return false;
+		}
+		return state.resourceAmount(resourceId) > 100 * (peasantIds.size() - 1);
+	}
+
+	@Override
+	public GameState apply(GameState state) {
+		GameState newState = new GameState(state, this);
+		
+		changes(newState);
+		
+		return newState;
+	}
+	
+	@Override
+	public void changes(StateChanges state) {
+		for(int id : peasantIds) state.harvest(id, resourceId);
+	}
+
+	@Override
+	public Action createSepia(int id, Direction dir) {
+		return Action.createPrimitiveGather(id, dir);
+	}
+
+	@Override
+	public Position targetPos() {
+		return resPos;
+	}
+	
+	@Override
+	public boolean directed() {
+		return true;
+	}
+	
+	@Override
+	public List<Integer> getPeasantIds() {
+		return peasantIds;
+	}
+	
+	@Override
+	public int getResourceId() {
+		return resourceId;
+	}
+	
+	@Override
+	public List<StripsAction> split() {
+		List<StripsAction> parts = new ArrayList<StripsAction>();
+		for(int id : peasantIds) parts.add(new Harvest(id, resPos, resourceId));
+		return parts;
+	}
+	
+	@Override
+	public String toString() {
+		return "HarvestK(" + peasantIds + ", " + resourceId + ")";
+	}
+}
@@ -1,46 +1,70 @@
 package edu.cwru.sepia.agent.planner.actions;
 
 import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.agent.planner.DistanceTable;
 import edu.cwru.sepia.agent.planner.GameState;
 import edu.cwru.sepia.agent.planner.Position;
 import edu.cwru.sepia.util.Direction;
 
+import java.util.Collections;
+import java.util.List;
+
 public class Move implements StripsAction {
 
+	int peasantId;
+	
 	Position bob;
 	Position pos;
 	
-	public Move(Position bob, Position pos) {
+	public Move(int peasantId, Position bob, Position pos) {
+		this.peasantId = peasantId;
 		this.bob = bob;
 		this.pos = pos;
 	}
 	
-	//precond: bob not at target position
+	//precond: bob at start position, not at target position, and the target can be walked to
 	@Override
 	public boolean preconditionsMet(GameState state) {
-		return !state.bobPos().equals(pos);
+		return state.hasPeasant(peasantId) && state.peasantPos(peasantId).equals(bob) && !bob.equals(pos)
+				&& GameState.distances.reachable(bob, pos);
 	}
 
 	//effect: move bob to target position
 	@Override
 	public GameState apply(GameState state) {
 		//make fresh copy
-		GameState newState = new GameState(state);
+		GameState newState = new GameState(state, this);
 		
-		newState.move(pos);
+		changes(newState);
 		
 		//System.out.println("applied move from " + bob.x + ", " + bob.y + " to " + pos.x + ", " + pos.y + " w/cost: " + getCost());
 		
 		return newState;
 	}
 	
+	@Override
+	public void changes(StateChanges state) {
+		state.move(peasantId, pos);
+	}
+	
 	@Override
 	public double getCost() {
-		return bob.chebyshevDistance(pos) - 1;
+		int steps = GameState.distances.distance(bob, pos);
+		return steps == DistanceTable.UNREACHABLE ? Double.POSITIVE_INFINITY : steps;
 	}
 
 	@Override
 	public Action createSepia(int id, Direction dir) {
 		return Action.createCompoundMove(id, pos.x, pos.y);
 	}
+	
+	@Override
+	public List<Integer> getPeasantIds() {
+		return Collections.singletonList(peasantId);
+	}
+	
+	@Override
+	public String toString() {
+		return "Move(" + peasantId + ", " + pos.x + ", " + pos.y + ")";
+	}
 }
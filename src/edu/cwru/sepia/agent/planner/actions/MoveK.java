@@ -0,0 +1,81 @@
+package edu.cwru.sepia.agent.planner.actions;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.agent.planner.DistanceTable;
+import edu.cwru.sepia.agent.planner.GameState;
+import edu.cwru.sepia.agent.planner.Position;
+import edu.cwru.sepia.util.Direction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * k peasants standing together walk to the same target. They walk side by side, so the cost is that of one Move.
+ */
+public class MoveK implements StripsAction {
+
+	List<Integer> peasantIds;
+	
+	Position from;
+	Position pos;
+	
+	public MoveK(List<Integer> peasantIds, Position from, Position pos) {
+		this.peasantIds = peasantIds;
+		this.from = from;
+		this.pos = pos;
+	}
+	
+	//precond: every peasant at start position, not at target position, and the target can be walked to
+	@Override
+	public boolean preconditionsMet(GameState state) {
+		if(from.equals(pos) || !GameState.distances.reachable(from, pos)) return false;
+		
+		for(int id : peasantIds) {
+			if(!state.hasPeasant(id) || !state.peasantPos(id).equals(from)) return false;
+		}
+		return true;
+	}
+
+	//effect: move every peasant to target position
+	@Override
+	public GameState apply(GameState state) {
+		GameState newState = new GameState(state, this);
+		
+		changes(newState);
+		
+		return newState;
+	}
+	
+	@Override
+	public void changes(StateChanges state) {
+		for(int id : peasantIds) state.move(id, pos);
+	}
+	
+	@Override
+	public double getCost() {
+		int steps = GameState.distances.distance(from, pos);
+		return steps == DistanceTable.UNREACHABLE ? Double.POSITIVE_INFINITY : steps;
+	}
+
+	@Override
+	public Action createSepia(int id, Direction dir) {
+		return Action.createCompoundMove(id, pos.x, pos.y);
+	}
+	
+	@Override
+	public List<Integer> getPeasantIds() {
+		return peasantIds;
+	}
+	
+	@Override
+	public List<StripsAction> split() {
+		List<StripsAction> parts = new ArrayList<StripsAction>();
+		for(int id : peasantIds) parts.add(new Move(id, from, pos));
+		return parts;
+	}
+	
+	@Override
+	public String toString() {
+		return "MoveK(" + peasantIds + ", " + pos.x + ", " + pos.y + ")";
+	}
+}
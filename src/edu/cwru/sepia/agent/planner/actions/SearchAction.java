@@ -0,0 +1,57 @@
+package edu.cwru.sepia.agent.planner.actions;
+
+import edu.cwru.sepia.agent.planner.GameState;
+
+import java.util.List;
+
+/**
+ * A step the search can take from one state to the next. Every StripsAction is one. Macro actions such as Trip are
+ * search steps only: they have no SEPIA action of their own, the plan holds the StripsActions they are made of.
+ */
+public interface SearchAction {
+
+    /**
+     * Returns true if the provided GameState meets all of the necessary conditions for this action to successfully
+     * execute.
+     *
+     * As an example consider a Move action that moves peasant 1 in the NORTH direction. The partial game state might
+     * specify that peasant 1 is at location (3, 3). In this case the game state shows that nothing is at location (3, 2)
+     * and (3, 2) is within bounds. So the method returns true.
+     *
+     * If the peasant were at (3, 0) this method would return false because the peasant cannot move to (3, -1).
+     *
+     * @param state GameState to check if action is applicable
+     * @return true if apply can be called, false otherwise
+     */
+    public boolean preconditionsMet(GameState state);
+
+    /**
+     * Applies the action instance to the given GameState producing a new GameState in the process.
+     *
+     * As an example consider a Move action that moves peasant 1 in the NORTH direction. The partial game state
+     * might specify that peasant 1 is at location (3, 3). The returned GameState should specify
+     * peasant 1 at location (3, 2).
+     *
+     * In the process of updating the peasant state you should also update the GameState's cost and parent pointers.
+     *
+     * @param state State to apply action to
+     * @return State resulting from successful action appliction.
+     */
+    public GameState apply(GameState state);
+    
+    /**
+     * Makes this action's changes, the same ones apply makes to the new state.
+     *
+     * @param state Where to make them
+     */
+    public void changes(StateChanges state);
+    
+    public default double getCost() {
+    	return 1;
+    }
+    
+    /**
+     * @return The actions the PEAgent carries out for this step, in order
+     */
+    public List<StripsAction> getSteps();
+}
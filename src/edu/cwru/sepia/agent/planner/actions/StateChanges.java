@@ -0,0 +1,25 @@
+package edu.cwru.sepia.agent.planner.actions;
+
+import edu.cwru.sepia.agent.planner.Position;
+
+/**
+ * The changes an action can make to a state. GameState makes them to the copy an action is applied to, and
+ * GameState.keyAfter makes them to the packed key alone, so a child can be looked up before it is built.
+ */
+public interface StateChanges {
+
+	public void move(int peasantId, Position pos);
+
+	/**
+	 * @param peasantId The empty handed peasant that gathers
+	 * @param resourceId The resource it gathers a load from
+	 */
+	public void harvest(int peasantId, int resourceId);
+
+	public void deposit(int peasantId);
+
+	/**
+	 * Spends the gold for a new peasant, which starts at the townhall with the next plan id
+	 */
+	public void buildPeasant();
+}
@@ -1,50 +1,19 @@
 package edu.cwru.sepia.agent.planner.actions;
 
 import edu.cwru.sepia.action.Action;
-import edu.cwru.sepia.agent.planner.GameState;
 import edu.cwru.sepia.agent.planner.Position;
 import edu.cwru.sepia.util.Direction;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * A useful start of an interface representing strips actions. You may add new methods to this interface if needed, but
  * you should implement the ones provided. You may also find it useful to specify a method that returns the effects
  * of a StripsAction.
  */
-public interface StripsAction {
-
-    /**
-     * Returns true if the provided GameState meets all of the necessary conditions for this action to successfully
-     * execute.
-     *
-     * As an example consider a Move action that moves peasant 1 in the NORTH direction. The partial game state might
-     * specify that peasant 1 is at location (3, 3). In this case the game state shows that nothing is at location (3, 2)
-     * and (3, 2) is within bounds. So the method returns true.
-     *
-     * If the peasant were at (3, 0) this method would return false because the peasant cannot move to (3, -1).
-     *
-     * @param state GameState to check if action is applicable
-     * @return true if apply can be called, false otherwise
-     */
-    public boolean preconditionsMet(GameState state);
+public interface StripsAction extends SearchAction {
 
-    /**
-     * Applies the action instance to the given GameState producing a new GameState in the process.
-     *
-     * As an example consider a Move action that moves peasant 1 in the NORTH direction. The partial game state
-     * might specify that peasant 1 is at location (3, 3). The returned GameState should specify
-     * peasant 1 at location (3, 2).
-     *
-     * In the process of updating the peasant state you should also update the GameState's cost and parent pointers.
-     *
-     * @param state State to apply action to
-     * @return State resulting from successful action appliction.
-     */
-    public GameState apply(GameState state);
-    
-    public default double getCost() {
-    	return 1;
-    }
-    
     public Action createSepia(int id, Direction dir);
     
     public default Position targetPos() {
@@ -54,4 +23,33 @@ public interface StripsAction {
     public default boolean directed() {
     	return false;
     }
+    
+    /**
+     * @return Plan ids of the peasants that carry out this action, empty if the townhall carries it out
+     */
+    public default List<Integer> getPeasantIds() {
+    	return Collections.emptyList();
+    }
+    
+    /**
+     * @return Id of the resource this action gathers from, -1 if it does not gather
+     */
+    public default int getResourceId() {
+    	return -1;
+    }
+    
+    /**
+     * Splits an action of several peasants into the same action for each peasant on its own, in peasant id order.
+     * Together the parts have the same effects as the whole action.
+     *
+     * @return The parts, just this action if it has nothing to split
+     */
+    public default List<StripsAction> split() {
+    	return Collections.singletonList(this);
+    }
+    
+    @Override
+    public default List<StripsAction> getSteps() {
+    	return Collections.singletonList(this);
+    }
 }
@@ -0,0 +1,100 @@
+package edu.cwru.sepia.agent.planner.actions;
+
+import edu.cwru.sepia.agent.planner.GameState;
+import edu.cwru.sepia.agent.planner.Position;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Macro action for a whole gathering cycle: empty handed peasants walk to a resource, harvest, walk back to the
+ * townhall and deposit. The search takes one step for the four, the cost is the sum of the four.
+ *
+ * A trip is only a search step, not a StripsAction. It has no SEPIA action, GameState.getPlan puts its steps in the
+ * plan instead, so trips never reach the PEAgent or PlanRepair.
+ */
+public class Trip implements SearchAction {
+
+	List<Integer> peasantIds;
+	int resourceId;
+
+	Position from;
+	Position resPos;
+	Position townhallPos = GameState.townhallPos;
+
+	private final List<StripsAction> steps;
+	private final double cost;
+
+	public Trip(List<Integer> peasantIds, Position from, Position resPos, int resourceId) {
+		this.peasantIds = peasantIds;
+		this.from = from;
+		this.resPos = resPos;
+		this.resourceId = resourceId;
+
+		boolean single = peasantIds.size() == 1;
+		int id = peasantIds.get(0);
+
+		List<StripsAction> steps = new ArrayList<StripsAction>(4);
+		steps.add(single ? new Move(id, from, resPos) : new MoveK(peasantIds, from, resPos));
+		steps.add(single ? new Harvest(id, resPos, resourceId) : new HarvestK(peasantIds, resPos, resourceId));
+		steps.add(single ? new Move(id, resPos, townhallPos) : new MoveK(peasantIds, resPos, townhallPos));
+		steps.add(single ? new Deposit(id) : new DepositK(peasantIds));
+		this.steps = Collections.unmodifiableList(steps);
+
+		double cost = 0;
+		for(StripsAction step : steps) cost += step.getCost();
+		this.cost = cost;
+	}
+
+	// the same as the preconditions of the four steps one after another: every peasant at the start empty handed,
+	// the resource has a load for each of them, and both walks can be made
+	@Override
+	public boolean preconditionsMet(GameState state) {
+		if(from.equals(resPos) || !GameState.distances.reachable(from, resPos) || !GameState.distances.reachable(resPos, townhallPos)) {
+			return false;
+		}
+
+		for(int id : peasantIds) {
+			if(!state.hasPeasant(id) || !state.peasantPos(id).equals(from) || state.peasantHolding(id)) return false;
+		}
+		return state.resourceAmount(resourceId) > 100 * (peasantIds.size() - 1);
+	}
+
+	@Override
+	public GameState apply(GameState state) {
+		GameState newState = new GameState(state, this);
+
+		changes(newState);
+
+		return newState;
+	}
+
+	@Override
+	public void changes(StateChanges state) {
+		for(int id : peasantIds) {
+			state.harvest(id, resourceId);
+			state.move(id, townhallPos);
+			state.deposit(id);
+		}
+	}
+
+	@Override
+	public double getCost() {
+		return cost;
+	}
+
+	@Override
+	public List<StripsAction> getSteps() {
+		return steps;
+	}
+
+	public List<Integer> getPeasantIds() {
+		return peasantIds;
+	}
+
+	@Override
+	public String toString() {
+		return "Trip(" + peasantIds + ", " + resourceId + ")";
+	}
+}
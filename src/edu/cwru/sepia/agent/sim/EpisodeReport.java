@@ -0,0 +1,79 @@
+package edu.cwru.sepia.agent.sim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What happened in one episode of the HeadlessSimulator: the number of turns, whether the goal was reached, and how
+ * long every agent call took.
+ */
+public class EpisodeReport {
+
+	private int turns;
+	private boolean goalReached;
+
+	// nanoseconds per agent call, by player
+	private final Map<Integer, List<Long>> latencies = new TreeMap<Integer, List<Long>>();
+
+	void addLatency(int player, long nanos) {
+		latencies.computeIfAbsent(player, p -> new ArrayList<Long>()).add(nanos);
+	}
+
+	void finish(int turns, boolean goalReached) {
+		this.turns = turns;
+		this.goalReached = goalReached;
+	}
+
+	public int getTurns() {
+		return turns;
+	}
+
+	public boolean isGoalReached() {
+		return goalReached;
+	}
+
+	/**
+	 * @return Nanoseconds of every initialStep/middleStep call, by player
+	 */
+	public Map<Integer, List<Long>> getLatencies() {
+		return latencies;
+	}
+
+	/**
+	 * Mean, median, 99th percentile and max of a list of latencies, in milliseconds.
+	 *
+	 * @param nanos Latencies in nanoseconds
+	 * @return The summary
+	 */
+	public static String describe(List<Long> nanos) {
+		if(nanos.isEmpty()) return "no calls";
+
+		List<Long> sorted = new ArrayList<Long>(nanos);
+		Collections.sort(sorted);
+		long total = 0;
+		for(long n : sorted) total += n;
+
+		return String.format("mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms (%d calls)",
+				total / 1e6 / sorted.size(), percentile(sorted, 0.5) / 1e6, percentile(sorted, 0.99) / 1e6,
+				sorted.get(sorted.size() - 1) / 1e6, sorted.size());
+	}
+
+	// nearest rank
+	private static long percentile(List<Long> sorted, double p) {
+		int rank = (int) Math.ceil(p * sorted.size());
+		return sorted.get(Math.max(0, rank - 1));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(turns).append(" turns, goal ").append(goalReached ? "reached" : "not reached");
+		for(Map.Entry<Integer, List<Long>> entry : latencies.entrySet()) {
+			sb.append("\n  player ").append(entry.getKey()).append(": ").append(describe(entry.getValue()));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,326 @@
+package edu.cwru.sepia.agent.sim;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.action.ActionFeedback;
+import edu.cwru.sepia.action.ActionResult;
+import edu.cwru.sepia.action.DirectedAction;
+import edu.cwru.sepia.action.LocatedAction;
+import edu.cwru.sepia.action.ProductionAction;
+import edu.cwru.sepia.action.TargetedAction;
+import edu.cwru.sepia.agent.Agent;
+import edu.cwru.sepia.environment.model.history.History;
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+import edu.cwru.sepia.environment.model.state.ResourceType;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit;
+import edu.cwru.sepia.environment.model.state.UnitTemplate;
+import edu.cwru.sepia.util.Direction;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Plays whole episodes of a Scenario in-process, without SEPIA's environment, configuration files or turn timers.
+ * The agents get real SEPIA StateViews and HistoryViews, so they run unchanged.
+ *
+ * The rules are a simplified SEPIA: every primitive takes one turn, production is instant, and compound actions take
+ * one step per turn along a shortest 8-way path until the unit gets there. A unit keeps its order until it completes
+ * or fails, or the agent gives it a new one, and every order gets command feedback each turn like in SEPIA. An episode
+ * ends when the goal holds, a player has lost all its units, or the turn limit is reached.
+ *
+ * A simulator runs one episode at a time.
+ */
+public class HeadlessSimulator {
+
+	private final Scenario scenario;
+	private final int maxTurns;
+
+	// the episode being played
+	private State state;
+	private State.StateView observer;
+	private History history;
+	private final Map<Integer, Action> orders = new TreeMap<Integer, Action>();
+
+	/**
+	 * @param scenario The game to play
+	 * @param maxTurns Episodes that don't reach the goal end after this many turns
+	 */
+	public HeadlessSimulator(Scenario scenario, int maxTurns) {
+		this.scenario = scenario;
+		this.maxTurns = maxTurns;
+	}
+
+	/**
+	 * Plays one episode on a fresh state from the scenario.
+	 *
+	 * @param agents The players, in turn order
+	 * @param goal Ends the episode when it holds after a turn
+	 * @return Turns played, whether the goal was reached and how long each agent took per turn
+	 */
+	public EpisodeReport run(List<Agent> agents, Predicate<State.StateView> goal) {
+		state = scenario.build();
+		observer = state.getView(Agent.OBSERVER_ID);
+		history = new History();
+		orders.clear();
+		for(Agent agent : agents) history.addPlayer(agent.getPlayerNumber());
+
+		EpisodeReport report = new EpisodeReport();
+		boolean reached = false;
+		int turn = 0;
+		while(turn < maxTurns && !reached && !defeated(agents)) {
+			for(Agent agent : agents) {
+				int player = agent.getPlayerNumber();
+				State.StateView view = state.getView(player);
+				History.HistoryView historyView = history.getView(player);
+
+				long start = System.nanoTime();
+				Map<Integer, Action> actions = turn == 0 ? agent.initialStep(view, historyView) : agent.middleStep(view, historyView);
+				report.addLatency(player, System.nanoTime() - start);
+
+				if(actions != null) order(player, turn, actions);
+			}
+
+			execute(turn);
+			state.incrementTurn();
+			turn++;
+			reached = goal.test(observer);
+		}
+
+		for(Agent agent : agents) {
+			int player = agent.getPlayerNumber();
+			agent.terminalStep(state.getView(player), history.getView(player));
+		}
+
+		report.finish(turn, reached);
+		return report;
+	}
+
+	// like SEPIA, the game is over once a player has no units left
+	private boolean defeated(List<Agent> agents) {
+		for(Agent agent : agents) {
+			if(observer.getUnitIds(agent.getPlayerNumber()).isEmpty()) return true;
+		}
+		return false;
+	}
+
+	// a new command replaces the unit's current order
+	private void order(int player, int turn, Map<Integer, Action> actions) {
+		for(Map.Entry<Integer, Action> entry : actions.entrySet()) {
+			Unit unit = state.getUnit(entry.getKey());
+			if(unit == null) {
+				history.recordCommandFeedback(player, turn, new ActionResult(entry.getValue(), ActionFeedback.INVALIDUNIT));
+			} else if(unit.getPlayer() != player) {
+				history.recordCommandFeedback(player, turn, new ActionResult(entry.getValue(), ActionFeedback.INVALIDCONTROLLER));
+			} else {
+				orders.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	// carries out one step of every order, in unit id order
+	private void execute(int turn) {
+		for(Integer unitId : orders.keySet().toArray(new Integer[0])) {
+			Unit unit = state.getUnit(unitId);
+			Action action = orders.get(unitId);
+			//the unit died earlier this turn
+			if(unit == null) {
+				orders.remove(unitId);
+				continue;
+			}
+
+			ActionFeedback feedback = step(unit, action);
+			history.recordCommandFeedback(unit.getPlayer(), turn, new ActionResult(action, feedback));
+			if(feedback != ActionFeedback.INCOMPLETE) orders.remove(unitId);
+		}
+	}
+
+	private ActionFeedback step(Unit unit, Action action) {
+		switch(action.getType()) {
+		case PRIMITIVEMOVE:
+			return move(unit, ((DirectedAction) action).getDirection());
+		case PRIMITIVEGATHER:
+			return gather(unit, resourceAt(unit, ((DirectedAction) action).getDirection()));
+		case PRIMITIVEDEPOSIT:
+			return deposit(unit, unitAt(unit, ((DirectedAction) action).getDirection()));
+		case PRIMITIVEATTACK:
+			return attack(unit, state.getUnit(((TargetedAction) action).getTargetId()));
+		case PRIMITIVEPRODUCE:
+			return produce(unit, scenario.getTemplate(((ProductionAction) action).getTemplateId()));
+		case COMPOUNDMOVE: {
+			LocatedAction move = (LocatedAction) action;
+			return approach(unit, move.getX(), move.getY(), 0);
+		}
+		case COMPOUNDGATHER: {
+			ResourceNode node = state.getResource(((TargetedAction) action).getTargetId());
+			if(node == null) return ActionFeedback.FAILED;
+			ActionFeedback approach = approach(unit, node.getxPosition(), node.getyPosition(), 1);
+			return approach == ActionFeedback.COMPLETED ? gather(unit, node) : approach;
+		}
+		case COMPOUNDDEPOSIT: {
+			Unit townhall = state.getUnit(((TargetedAction) action).getTargetId());
+			if(townhall == null) return ActionFeedback.FAILED;
+			ActionFeedback approach = approach(unit, townhall.getxPosition(), townhall.getyPosition(), 1);
+			return approach == ActionFeedback.COMPLETED ? deposit(unit, townhall) : approach;
+		}
+		case COMPOUNDATTACK: {
+			Unit target = state.getUnit(((TargetedAction) action).getTargetId());
+			if(target == null) return ActionFeedback.FAILED;
+			ActionFeedback approach = approach(unit, target.getxPosition(), target.getyPosition(), unit.getTemplate().getRange());
+			return approach == ActionFeedback.COMPLETED ? attack(unit, target) : approach;
+		}
+		default:
+			return ActionFeedback.INVALIDTYPE;
+		}
+	}
+
+	private ActionFeedback move(Unit unit, Direction direction) {
+		if(!unit.getTemplate().canMove()) return ActionFeedback.FAILED;
+		int x = unit.getxPosition() + direction.xComponent();
+		int y = unit.getyPosition() + direction.yComponent();
+		if(!free(x, y)) return ActionFeedback.FAILED;
+
+		state.moveUnit(unit, direction);
+		return ActionFeedback.COMPLETED;
+	}
+
+	/**
+	 * One step towards being within range of (x, y). Range 0 means standing on it. COMPLETED when the unit is there
+	 * already, INCOMPLETE after a step, FAILED if there is no way there.
+	 */
+	private ActionFeedback approach(Unit unit, int x, int y, int range) {
+		if(distance(unit.getxPosition(), unit.getyPosition(), x, y) <= range) return ActionFeedback.COMPLETED;
+
+		//a move onto an occupied cell ends next to it, like SEPIA
+		if(range == 0 && !free(x, y)) {
+			if(distance(unit.getxPosition(), unit.getyPosition(), x, y) <= 1) return ActionFeedback.COMPLETED;
+			range = 1;
+		}
+
+		Direction direction = firstStep(unit.getxPosition(), unit.getyPosition(), x, y, range);
+		if(direction == null || move(unit, direction) != ActionFeedback.COMPLETED) return ActionFeedback.FAILED;
+		return distance(unit.getxPosition(), unit.getyPosition(), x, y) <= range ? ActionFeedback.COMPLETED : ActionFeedback.INCOMPLETE;
+	}
+
+	// breadth first search over free cells, returns the first step of a shortest path or null if there is none
+	private Direction firstStep(int fromX, int fromY, int x, int y, int range) {
+		int width = observer.getXExtent();
+		int height = observer.getYExtent();
+		Direction[] first = new Direction[width * height];
+		boolean[] seen = new boolean[width * height];
+		Deque<Integer> queue = new ArrayDeque<Integer>();
+
+		seen[fromY * width + fromX] = true;
+		queue.add(fromY * width + fromX);
+		while(!queue.isEmpty()) {
+			int cell = queue.poll();
+			int cx = cell % width;
+			int cy = cell / width;
+			for(Direction direction : Direction.values()) {
+				int nx = cx + direction.xComponent();
+				int ny = cy + direction.yComponent();
+				if(nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+				int next = ny * width + nx;
+				if(seen[next] || !free(nx, ny)) continue;
+
+				seen[next] = true;
+				first[next] = first[cell] == null ? direction : first[cell];
+				if(distance(nx, ny, x, y) <= range) return first[next];
+				queue.add(next);
+			}
+		}
+		return null;
+	}
+
+	private ActionFeedback gather(Unit unit, ResourceNode node) {
+		if(node == null || !unit.getTemplate().canGather() || unit.getCurrentCargoAmount() > 0) return ActionFeedback.FAILED;
+		if(distance(unit.getxPosition(), unit.getyPosition(), node.getxPosition(), node.getyPosition()) > 1) return ActionFeedback.FAILED;
+
+		int amount = Math.min(100, node.getAmountRemaining());
+		node.reduceAmountRemaining(amount);
+		unit.setCargo(ResourceNode.Type.getResourceType(node.getType()), amount);
+		if(node.getAmountRemaining() <= 0) state.removeResourceNode(node.getID());
+		return ActionFeedback.COMPLETED;
+	}
+
+	private ActionFeedback deposit(Unit unit, Unit townhall) {
+		if(townhall == null || townhall.getPlayer() != unit.getPlayer() || unit.getCurrentCargoAmount() == 0) return ActionFeedback.FAILED;
+		if(distance(unit.getxPosition(), unit.getyPosition(), townhall.getxPosition(), townhall.getyPosition()) > 1) return ActionFeedback.FAILED;
+
+		ResourceType type = unit.getCurrentCargoType();
+		UnitTemplate template = townhall.getTemplate();
+		if(type == ResourceType.GOLD ? !template.canAcceptGold() : !template.canAcceptWood()) return ActionFeedback.FAILED;
+
+		state.addResourceAmount(unit.getPlayer(), type, unit.getCurrentCargoAmount());
+		unit.clearCargo();
+		return ActionFeedback.COMPLETED;
+	}
+
+	private ActionFeedback attack(Unit unit, Unit target) {
+		if(target == null || target.getPlayer() == unit.getPlayer()) return ActionFeedback.FAILED;
+		int range = unit.getTemplate().getRange();
+		if(distance(unit.getxPosition(), unit.getyPosition(), target.getxPosition(), target.getyPosition()) > range) return ActionFeedback.FAILED;
+
+		target.setHP(target.getCurrentHealth() - unit.getTemplate().getBasicAttack());
+		if(target.getCurrentHealth() <= 0) {
+			state.removeUnit(target.getId());
+			orders.remove(target.getId());
+		}
+		return ActionFeedback.COMPLETED;
+	}
+
+	private ActionFeedback produce(Unit unit, UnitTemplate template) {
+		int player = unit.getPlayer();
+		if(template == null || template.getPlayer() != player) return ActionFeedback.FAILED;
+
+		if(state.getResourceAmount(player, ResourceType.GOLD) < template.getGoldCost()) return ActionFeedback.FAILED;
+		if(state.getResourceAmount(player, ResourceType.WOOD) < template.getWoodCost()) return ActionFeedback.FAILED;
+
+		int food = 0;
+		for(Unit.UnitView u : observer.getUnits(player)) food += u.getTemplateView().getFoodCost();
+		if(food + template.getFoodCost() > scenario.getSupplyCap(player)) return ActionFeedback.FAILED;
+
+		//the new unit goes on the first free cell around the producer
+		for(Direction direction : Direction.values()) {
+			int x = unit.getxPosition() + direction.xComponent();
+			int y = unit.getyPosition() + direction.yComponent();
+			if(!free(x, y)) continue;
+
+			state.addResourceAmount(player, ResourceType.GOLD, -template.getGoldCost());
+			state.addResourceAmount(player, ResourceType.WOOD, -template.getWoodCost());
+			state.addUnit(new Unit(template, state.nextUnitID()), x, y);
+			return ActionFeedback.COMPLETED;
+		}
+		return ActionFeedback.FAILED;
+	}
+
+	private ResourceNode resourceAt(Unit unit, Direction direction) {
+		int x = unit.getxPosition() + direction.xComponent();
+		int y = unit.getyPosition() + direction.yComponent();
+		for(ResourceNode.ResourceView r : observer.getAllResourceNodes()) {
+			if(r.getXPosition() == x && r.getYPosition() == y) return state.getResource(r.getID());
+		}
+		return null;
+	}
+
+	private Unit unitAt(Unit unit, Direction direction) {
+		int x = unit.getxPosition() + direction.xComponent();
+		int y = unit.getyPosition() + direction.yComponent();
+		for(Unit.UnitView u : observer.getAllUnits()) {
+			if(u.getXPosition() == x && u.getYPosition() == y) return state.getUnit(u.getID());
+		}
+		return null;
+	}
+
+	private boolean free(int x, int y) {
+		return observer.inBounds(x, y) && !observer.isUnitAt(x, y) && !observer.isResourceAt(x, y);
+	}
+
+	// chebyshev distance, the number of 8-way steps
+	private static int distance(int x1, int y1, int x2, int y2) {
+		return Math.max(Math.abs(x1 - x2), Math.abs(y1 - y2));
+	}
+}
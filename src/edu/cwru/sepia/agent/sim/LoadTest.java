@@ -0,0 +1,99 @@
+package edu.cwru.sepia.agent.sim;
+
+import edu.cwru.sepia.agent.Agent;
+import edu.cwru.sepia.environment.model.state.ResourceType;
+import edu.cwru.sepia.environment.model.state.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Runs an agent through many episodes of the HeadlessSimulator and prints how it did.
+ *
+ * Usage: LoadTest [name=value ...] [-- agent args]
+ *
+ * scenario: small, large or combat (default small)
+ * episodes: number of episodes (default 100)
+ * turns: turn limit per episode (default 1000)
+ * agent: class of player 0 (default PlannerAgent on the gather maps, MinimaxAlphaBeta on combat)
+ * opponent: class of player 1 on combat (default StandGroundAgent)
+ * gold, wood: goal on the gather maps (default 1000 each)
+ *
+ * Everything after "--" goes to the agent's (int, String[]) constructor, e.g. "-- 1000 1000 false cache=false" (wood,
+ * gold, build peasants) for the planner or "-- 4" for minimax.
+ */
+public class LoadTest {
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		String[] agentArgs = new String[0];
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("--")) {
+				agentArgs = Arrays.copyOfRange(args, i + 1, args.length);
+				break;
+			}
+			String[] option = args[i].split("=", 2);
+			if(option.length != 2) throw new IllegalArgumentException("Expected name=value, got " + args[i]);
+			options.put(option[0].toLowerCase(), option[1]);
+		}
+
+		String name = options.getOrDefault("scenario", "small");
+		int episodes = Integer.parseInt(options.getOrDefault("episodes", "100"));
+		int turns = Integer.parseInt(options.getOrDefault("turns", "1000"));
+		int gold = Integer.parseInt(options.getOrDefault("gold", "1000"));
+		int wood = Integer.parseInt(options.getOrDefault("wood", "1000"));
+		boolean combat = name.equals("combat");
+
+		Scenario scenario;
+		switch(name) {
+		case "small": scenario = Scenario.gatherSmall(); break;
+		case "large": scenario = Scenario.gatherLarge(); break;
+		case "combat": scenario = Scenario.combat(); break;
+		default: throw new IllegalArgumentException("Unknown scenario " + name);
+		}
+
+		String agentClass = options.getOrDefault("agent", combat ? "edu.cwru.sepia.agent.minimax.MinimaxAlphaBeta" : "edu.cwru.sepia.agent.planner.PlannerAgent");
+		String opponentClass = options.getOrDefault("opponent", StandGroundAgent.class.getName());
+		if(agentArgs.length == 0) agentArgs = combat ? new String[] { "2" } : new String[] { "" + wood, "" + gold, "false" };
+
+		Predicate<State.StateView> goal = combat
+				? view -> view.getUnitIds(1).isEmpty()
+				: view -> view.getResourceAmount(0, ResourceType.GOLD) >= gold && view.getResourceAmount(0, ResourceType.WOOD) >= wood;
+
+		HeadlessSimulator simulator = new HeadlessSimulator(scenario, turns);
+		Map<Integer, List<Long>> latencies = new HashMap<Integer, List<Long>>();
+		int reached = 0;
+		long totalTurns = 0;
+
+		long start = System.nanoTime();
+		for(int episode = 0; episode < episodes; episode++) {
+			//fresh agents every episode, like a new SEPIA run
+			List<Agent> agents = new ArrayList<Agent>();
+			agents.add(agent(agentClass, 0, agentArgs));
+			if(combat) agents.add(agent(opponentClass, 1, new String[0]));
+
+			EpisodeReport report = simulator.run(agents, goal);
+			if(report.isGoalReached()) reached++;
+			totalTurns += report.getTurns();
+			for(Map.Entry<Integer, List<Long>> entry : report.getLatencies().entrySet()) {
+				latencies.computeIfAbsent(entry.getKey(), p -> new ArrayList<Long>()).addAll(entry.getValue());
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println(String.format("%s: goal reached in %d of %d episodes, %.1f turns on average",
+				name, reached, episodes, (double) totalTurns / episodes));
+		System.out.println(String.format("%.1f s, %.0f episodes/hour", seconds, episodes / seconds * 3600));
+		for(Map.Entry<Integer, List<Long>> entry : latencies.entrySet()) {
+			System.out.println("player " + entry.getKey() + ": " + EpisodeReport.describe(entry.getValue()));
+		}
+	}
+
+	private static Agent agent(String className, int player, String[] args) throws Exception {
+		return (Agent) Class.forName(className).getConstructor(int.class, String[].class).newInstance(player, args);
+	}
+}
@@ -0,0 +1,221 @@
+package edu.cwru.sepia.agent.sim;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+import edu.cwru.sepia.environment.model.state.ResourceType;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit;
+import edu.cwru.sepia.environment.model.state.UnitTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recipe for a game the HeadlessSimulator can play: map size, units, resources and what every player starts with.
+ * Every call to build() makes a fresh SEPIA State, so one scenario runs any number of episodes. The unit and resource
+ * ids come out the same in every build.
+ *
+ * Units are made from a few standard templates (TownHall, Peasant, Footman, Archer) with the stats of the SEPIA
+ * configs the assignments use.
+ */
+public class Scenario {
+
+	private final int width;
+	private final int height;
+
+	// templates by player and name, and by id for production
+	private final Map<String, UnitTemplate> templatesByName = new HashMap<String, UnitTemplate>();
+	private final Map<Integer, UnitTemplate> templatesById = new HashMap<Integer, UnitTemplate>();
+
+	private final List<Object[]> units = new ArrayList<Object[]>();
+	private final List<Object[]> resources = new ArrayList<Object[]>();
+
+	private final Map<Integer, int[]> stock = new HashMap<Integer, int[]>();
+	private final Map<Integer, Integer> supplyCap = new HashMap<Integer, Integer>();
+
+	public Scenario(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * @param player Owner of the unit
+	 * @param name TownHall, Peasant, Footman or Archer
+	 * @param x Column
+	 * @param y Row
+	 * @return this
+	 */
+	public Scenario addUnit(int player, String name, int x, int y) {
+		units.add(new Object[] { template(player, name), x, y });
+		return this;
+	}
+
+	public Scenario addGoldMine(int x, int y, int amount) {
+		resources.add(new Object[] { ResourceNode.Type.GOLD_MINE, x, y, amount });
+		return this;
+	}
+
+	public Scenario addTree(int x, int y, int amount) {
+		resources.add(new Object[] { ResourceNode.Type.TREE, x, y, amount });
+		return this;
+	}
+
+	public Scenario setStock(int player, int gold, int wood) {
+		stock.put(player, new int[] { gold, wood });
+		return this;
+	}
+
+	public Scenario setSupplyCap(int player, int cap) {
+		supplyCap.put(player, cap);
+		return this;
+	}
+
+	public int getSupplyCap(int player) {
+		return supplyCap.getOrDefault(player, 0);
+	}
+
+	/**
+	 * @param id Template id
+	 * @return The template, null if this scenario never made one with that id
+	 */
+	public UnitTemplate getTemplate(int id) {
+		return templatesById.get(id);
+	}
+
+	/**
+	 * The template for a unit type, made the first time a player needs it. Every player that can have a unit type gets
+	 * its own template, so a townhall can look its peasant template up like in SEPIA.
+	 *
+	 * @param player Owner of the template
+	 * @param name TownHall, Peasant, Footman or Archer
+	 * @return The template
+	 */
+	public UnitTemplate template(int player, String name) {
+		String key = player + ":" + name;
+		UnitTemplate template = templatesByName.get(key);
+		if(template != null) return template;
+
+		template = new UnitTemplate(templatesById.size() + 1);
+		template.setName(name);
+		template.setPlayer(player);
+
+		switch(name) {
+		case "TownHall":
+			template.setBaseHealth(1200);
+			template.setCanAcceptGold(true);
+			template.setCanAcceptWood(true);
+			template.setFoodProvided(1);
+			template.setCanMove(false);
+			break;
+		case "Peasant":
+			template.setBaseHealth(30);
+			template.setBasicAttack(3);
+			template.setRange(1);
+			template.setGoldCost(400);
+			template.setFoodCost(1);
+			template.setCanGather(true);
+			template.setCanMove(true);
+			break;
+		case "Footman":
+			template.setBaseHealth(160);
+			template.setBasicAttack(6);
+			template.setRange(1);
+			template.setGoldCost(600);
+			template.setFoodCost(1);
+			template.setCanMove(true);
+			break;
+		case "Archer":
+			template.setBaseHealth(50);
+			template.setBasicAttack(6);
+			template.setRange(4);
+			template.setGoldCost(500);
+			template.setWoodCost(50);
+			template.setFoodCost(1);
+			template.setCanMove(true);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown unit type " + name);
+		}
+
+		templatesByName.put(key, template);
+		templatesById.put(template.getID(), template);
+
+		//a townhall can make peasants
+		if(name.equals("TownHall")) template(player, "Peasant");
+		return template;
+	}
+
+	/**
+	 * @return A fresh state for one episode
+	 */
+	public State build() {
+		State.StateBuilder builder = new State.StateBuilder();
+		builder.setSize(width, height);
+
+		for(UnitTemplate template : templatesById.values()) builder.addTemplate(template);
+
+		for(Object[] unit : units) {
+			builder.addUnit(new Unit((UnitTemplate) unit[0], builder.nextUnitID()), (Integer) unit[1], (Integer) unit[2]);
+		}
+		for(Object[] resource : resources) {
+			builder.addResource(new ResourceNode((ResourceNode.Type) resource[0], (Integer) resource[1], (Integer) resource[2],
+					(Integer) resource[3], builder.nextUnitID()));
+		}
+
+		for(Map.Entry<Integer, int[]> entry : stock.entrySet()) {
+			builder.setResourceAmount(entry.getKey(), ResourceType.GOLD, entry.getValue()[0]);
+			builder.setResourceAmount(entry.getKey(), ResourceType.WOOD, entry.getValue()[1]);
+		}
+		for(Map.Entry<Integer, Integer> entry : supplyCap.entrySet()) {
+			builder.setSupplyCap(entry.getKey(), entry.getValue());
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * The small resource collection map: one townhall, one peasant, two gold mines and a few trees.
+	 */
+	public static Scenario gatherSmall() {
+		Scenario scenario = new Scenario(20, 20)
+				.addUnit(0, "TownHall", 5, 5)
+				.addUnit(0, "Peasant", 6, 6)
+				.addGoldMine(2, 15, 500)
+				.addGoldMine(15, 3, 1000)
+				.setSupplyCap(0, 3);
+
+		for(int i = 0; i < 6; i++) scenario.addTree(9 + i % 4, 10 + i / 4, 400);
+		return scenario;
+	}
+
+	/**
+	 * The large resource collection map: more and bigger resources, with a far away mine.
+	 */
+	public static Scenario gatherLarge() {
+		Scenario scenario = new Scenario(32, 32)
+				.addUnit(0, "TownHall", 5, 5)
+				.addUnit(0, "Peasant", 6, 6)
+				.addGoldMine(2, 15, 5000)
+				.addGoldMine(15, 3, 5000)
+				.addGoldMine(28, 28, 20000)
+				.setSupplyCap(0, 3);
+
+		for(int i = 0; i < 12; i++) scenario.addTree(9 + i % 4, 10 + i / 4, 400);
+		return scenario;
+	}
+
+	/**
+	 * Two footmen (player 0) against two archers (player 1) with a wall of trees in between.
+	 */
+	public static Scenario combat() {
+		Scenario scenario = new Scenario(20, 14)
+				.addUnit(0, "Footman", 1, 1)
+				.addUnit(0, "Footman", 1, 3)
+				.addUnit(1, "Archer", 18, 11)
+				.addUnit(1, "Archer", 18, 2);
+
+		for(int y = 4; y < 10; y++) scenario.addTree(10, y, 100);
+		return scenario;
+	}
+}
@@ -0,0 +1,59 @@
+package edu.cwru.sepia.agent.sim;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.agent.Agent;
+import edu.cwru.sepia.environment.model.history.History;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Opponent for the combat scenario. Its units never move, each one shoots the closest enemy in range.
+ */
+public class StandGroundAgent extends Agent {
+
+	public StandGroundAgent(int playernum, String[] args) {
+		super(playernum);
+	}
+
+	@Override
+	public Map<Integer, Action> initialStep(State.StateView stateView, History.HistoryView historyView) {
+		return middleStep(stateView, historyView);
+	}
+
+	@Override
+	public Map<Integer, Action> middleStep(State.StateView stateView, History.HistoryView historyView) {
+		Map<Integer, Action> actions = new HashMap<Integer, Action>();
+		for(Unit.UnitView unit : stateView.getUnits(playernum)) {
+			int range = unit.getTemplateView().getRange();
+			Unit.UnitView closest = null;
+			int closestDistance = Integer.MAX_VALUE;
+			for(Unit.UnitView enemy : stateView.getAllUnits()) {
+				if(stateView.getUnitIds(playernum).contains(enemy.getID())) continue;
+				int distance = Math.max(Math.abs(unit.getXPosition() - enemy.getXPosition()), Math.abs(unit.getYPosition() - enemy.getYPosition()));
+				if(distance <= range && distance < closestDistance) {
+					closest = enemy;
+					closestDistance = distance;
+				}
+			}
+			if(closest != null) actions.put(unit.getID(), Action.createPrimitiveAttack(unit.getID(), closest.getID()));
+		}
+		return actions;
+	}
+
+	@Override
+	public void terminalStep(State.StateView stateView, History.HistoryView historyView) {
+	}
+
+	@Override
+	public void savePlayerData(OutputStream outputStream) {
+	}
+
+	@Override
+	public void loadPlayerData(InputStream inputStream) {
+	}
+}